@@ -0,0 +1,94 @@
+package cfh.maps.graph;
+
+/**
+ * Compressed (CSR) adjacency of a multigraph given as arc list.
+ * The slots <code>begin(node)..end(node)-1</code> hold the arcs leaving <code>node</code>;
+ * undirected arcs are stored once in each direction.
+ */
+class Adjacency {
+
+    private final int[] start;
+    private final int[] source;
+    private final int[] target;
+    private final int[] arc;
+    private final double[] cost;
+
+    Adjacency(int nodes, int arcs, int[] from, int[] to, double[] arcCost, boolean directed) {
+        start = new int[nodes+1];
+        for (int a = 0; a < arcs; a++) {
+            start[from[a]+1] += 1;
+            if (!directed) {
+                start[to[a]+1] += 1;
+            }
+        }
+        for (int i = 0; i < nodes; i++) {
+            start[i+1] += start[i];
+        }
+
+        int slots = start[nodes];
+        source = new int[slots];
+        target = new int[slots];
+        arc = new int[slots];
+        cost = new double[slots];
+
+        int[] fill = new int[nodes];
+        System.arraycopy(start, 0, fill, 0, nodes);
+        for (int a = 0; a < arcs; a++) {
+            int k = fill[from[a]]++;
+            source[k] = from[a];
+            target[k] = to[a];
+            arc[k] = a;
+            cost[k] = arcCost[a];
+            if (!directed) {
+                k = fill[to[a]]++;
+                source[k] = to[a];
+                target[k] = from[a];
+                arc[k] = a;
+                cost[k] = arcCost[a];
+            }
+        }
+    }
+
+    int getNodeCount() {
+        return start.length - 1;
+    }
+
+    int getSlotCount() {
+        return target.length;
+    }
+
+    int begin(int node) {
+        return start[node];
+    }
+
+    int end(int node) {
+        return start[node+1];
+    }
+
+    int getSource(int slot) {
+        return source[slot];
+    }
+
+    int getTarget(int slot) {
+        return target[slot];
+    }
+
+    int getArc(int slot) {
+        return arc[slot];
+    }
+
+    double getCost(int slot) {
+        return cost[slot];
+    }
+
+    /** Slot of the cheapest arc from <code>from</code> to <code>to</code>, <code>-1</code> if none. */
+    int cheapest(int from, int to) {
+        int found = -1;
+        for (int k = start[from]; k < start[from+1]; k++) {
+            if (target[k] == to && (found == -1 || cost[k] < cost[found])) {
+                found = k;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,289 @@
+package cfh.maps.graph;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cfh.maps.gui.FileMapDAO;
+import cfh.maps.gui.FileMapDAO.ImageMode;
+import cfh.maps.gui.Map;
+
+/**
+ * Solves the postman tour of many maps without GUI.
+ * <p>
+ * Arguments: <code>[-threads n] [-mode m] [-image] (directory | file)...</code>; all <code>.gr</code>
+ * files of a directory are solved, on a pool of <code>n</code> threads (default: number of
+ * processors), with the {@link Solver.Mode} <code>m</code> (default: <code>SPARSE</code>, 
+ * <code>PARALLEL</code> runs the blocked Floyd-Warshall on all cores).
+ * The image is only decoded with <code>-image</code>. Each connected component of a map is
+ * toured separately. Writes one JSON object per file, in the order of the arguments, with the
+ * summed cost of the tours and the times of the phases in milliseconds, or the error.
+ * Exits with 1 if a file failed, so running it on <code>data</code> checks that all maps solve.
+ */
+public class BatchSolver {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Solver.Mode mode = Solver.Mode.SPARSE;
+        ImageMode imageMode = ImageMode.SKIP;
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i+1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-mode") && i+1 < args.length) {
+                try {
+                    mode = Solver.Mode.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException ex) {
+                    usage("unrecognized mode " + args[i]);
+                }
+            } else if (args[i].equals("-image")) {
+                imageMode = ImageMode.DECODE;
+            } else if (args[i].startsWith("-")) {
+                usage("unrecognized option " + args[i]);
+            } else {
+                File file = new File(args[i]);
+                if (file.isDirectory()) {
+                    File[] maps = file.listFiles(new FileFilter() {
+                        @Override
+                        public boolean accept(File pathname) {
+                            return pathname.isFile() && pathname.getName().endsWith(".gr");
+                        }
+                    });
+                    Arrays.sort(maps);
+                    files.addAll(Arrays.asList(maps));
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty())
+            usage("no map files");
+        if (threads < 1)
+            usage("invalid number of threads: " + threads);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int failed = 0;
+        try {
+            List<Future<Result>> results = new ArrayList<Future<Result>>(files.size());
+            for (File file : files) {
+                results.add(pool.submit(new Job(file, mode, imageMode)));
+            }
+            for (Future<Result> future : results) {
+                try {
+                    Result result = future.get();
+                    System.out.println(result.json);
+                    if (result.failed) {
+                        failed += 1;
+                    }
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (failed > 0) {
+            System.err.println(failed + " of " + files.size() + " maps failed");
+        }
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("usage: BatchSolver [-threads n] [-mode DENSE|COMPACT|PARALLEL|SPARSE] [-image] (directory | file)...");
+        System.exit(2);
+    }
+
+    /** Outcome of a {@link Job}. */
+    private static class Result {
+
+        final String json;
+        final boolean failed;
+
+        Result(String json, boolean failed) {
+            this.json = json;
+            this.failed = failed;
+        }
+    }
+
+    /** Solves one map, the result or the error as JSON. */
+    private static class Job implements Callable<Result>, Monitor {
+
+        private final File file;
+        private final Solver.Mode mode;
+        private final ImageMode imageMode;
+
+        private final LinkedHashMap<String, Long> times = new LinkedHashMap<String, Long>();
+        private String phase = null;
+        private long phaseStart;
+
+        Job(File file, Solver.Mode mode, ImageMode imageMode) {
+            this.file = file;
+            this.mode = mode;
+            this.imageMode = imageMode;
+        }
+
+        @Override
+        public Result call() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"file\":").append(quote(file.getPath()));
+            boolean failed = false;
+            long start = System.nanoTime();
+            try {
+                phase("load");
+                Map map = new FileMapDAO(file, imageMode).read();
+                phase("graph");
+                Graph graph = Graph.create(map);
+                graph.compact();
+                if (graph.getNodes().isEmpty())
+                    throw new IllegalArgumentException("no lines");
+                List<Node[]> components = components(graph);
+                double cost = 0;
+                double augmentation = 0;
+                int steps = 0;
+                for (Node[] component : components) {
+                    Solver solver = solver(graph, component);
+                    Trail tour = solver.getTour(component[0], this);
+                    cost += tour.getCost();
+                    augmentation += solver.getAugmentation();
+                    steps += tour.size();
+                }
+                phase(null);
+
+                double length = 0;
+                for (Edge edge : graph.getEdges()) {
+                    length += edge.getLength();
+                }
+                json.append(",\"points\":").append(map.getPoints().size());
+                json.append(",\"lines\":").append(map.getLines().size());
+                BufferedImage image = map.getImage();
+                if (image != null) {
+                    json.append(",\"image\":").append(quote(image.getWidth() + "x" + image.getHeight()));
+                }
+                json.append(",\"nodes\":").append(graph.getNodes().size());
+                json.append(",\"edges\":").append(graph.getEdges().size());
+                json.append(",\"components\":").append(components.size());
+                json.append(",\"length\":").append(number(length));
+                json.append(",\"cost\":").append(number(cost));
+                json.append(",\"augmentation\":").append(number(augmentation));
+                json.append(",\"steps\":").append(steps);
+            } catch (Exception ex) {
+                phase(null);
+                json.append(",\"error\":").append(quote(ex.toString()));
+                failed = true;
+            } catch (Error ex) {
+                phase(null);
+                json.append(",\"error\":").append(quote(ex.toString()));
+                failed = true;
+            }
+            times.put("total", System.nanoTime() - start);
+            json.append(",\"ms\":{");
+            String sep = "";
+            for (java.util.Map.Entry<String, Long> entry : times.entrySet()) {
+                json.append(sep).append(quote(entry.getKey())).append(':').append(number(entry.getValue() / 1e6));
+                sep = ",";
+            }
+            json.append("}}");
+            return new Result(json.toString(), failed);
+        }
+
+        /** Nodes of each connected component with edges, a map may have separate parts. */
+        private static List<Node[]> components(Graph graph) {
+            List<Node[]> result = new ArrayList<Node[]>();
+            BitSet seen = new BitSet(graph.getNodeCapacity());
+            Deque<Node> queue = new ArrayDeque<Node>();
+            for (Node first : graph.getNodes()) {
+                if (seen.get(first.getIndex()) || first.getEdges().isEmpty())
+                    continue;
+                List<Node> nodes = new ArrayList<Node>();
+                seen.set(first.getIndex());
+                queue.add(first);
+                while (!queue.isEmpty()) {
+                    Node node = queue.remove();
+                    nodes.add(node);
+                    for (Edge edge : node.getEdges()) {
+                        Node other = (edge.getNode1() == node) ? edge.getNode2() : edge.getNode1();
+                        if (!seen.get(other.getIndex())) {
+                            seen.set(other.getIndex());
+                            queue.add(other);
+                        }
+                    }
+                }
+                result.add(nodes.toArray(new Node[nodes.size()]));
+            }
+            return result;
+        }
+
+        /** Solver with the nodes of a component and their edges. */
+        private Solver solver(Graph graph, Node[] component) {
+            Solver solver = new Solver(mode, component);
+            BitSet added = new BitSet(graph.getEdgeCapacity());  // a loop is twice at its node
+            for (Node node : component) {
+                for (Edge edge : node.getEdges()) {
+                    if (!added.get(edge.getIndex())) {
+                        added.set(edge.getIndex());
+                        solver.addEdge(edge, edge.getNode1(), edge.getNode2(), edge.getLength());
+                    }
+                }
+            }
+            return solver;
+        }
+
+        /** Ends the current phase; <code>null</code> to not start another one. */
+        @Override
+        public void phase(String name) {
+            long now = System.nanoTime();
+            if (phase != null) {
+                Long before = times.get(phase);
+                times.put(phase, (before == null ? 0 : before) + now - phaseStart);
+            }
+            phase = name;
+            phaseStart = now;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String text) {
+        StringBuilder result = new StringBuilder(text.length() + 2);
+        result.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '"': result.append("\\\""); break;
+                case '\\': result.append("\\\\"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                case '\t': result.append("\\t"); break;
+                default:
+                    if (ch < 0x20) {
+                        result.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        result.append(ch);
+                    }
+                    break;
+            }
+        }
+        return result.append('"').toString();
+    }
+}
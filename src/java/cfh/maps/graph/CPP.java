@@ -12,6 +12,8 @@ package cfh.maps.graph;
 
 // <tex file="class.tex">
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class CPP {	
     /** number of vertices */
@@ -36,6 +38,10 @@ public class CPP {
     int path[][];
     /** total cost of traversing each arc once */
     float basicCost;
+    /** pool for the blocked least cost search, null for the classic loop */
+    ForkJoinPool pool = null;
+    /** balancing engine, buffers are reused by each solve */
+    MinCostFlow flow = null;
 
     // <literal>$\vdots$\\\vbox{}</literal><null>
     // Other declarations are described below
@@ -79,11 +85,23 @@ public class CPP {
 
     void solve()
     {	
-        leastCostPaths();
+        if( pool != null ) leastCostPathsBlocked(pool);
+        else leastCostPaths();
         checkValid();
         findUnbalanced();
-        findFeasible();
-        do {} while( improvements() );
+        findOptimal();
+    }
+
+    /** Balances the unbalanced vertices by min cost flow (successive shortest paths),
+     *  replaces findFeasible() followed by improvements() until there are none.
+     */
+    void findOptimal()
+    {	
+        if( flow == null ) flow = new MinCostFlow(c);
+        for( int i = 0; i < neg.length; i++ )
+            for( int j = 0; j < pos.length; j++ )
+                f[neg[i]][pos[j]] = 0;
+        flow.solve(neg, pos, delta, f);
     }
 
     /** Floyd-Warshall algorithm
@@ -106,6 +124,31 @@ public class CPP {
                         }
     }
 
+    /** Blocked Floyd-Warshall over a flattened copy of c and path,
+     *  the independent tiles run on the given pool.
+     *  Stops after the block that reveals a negative cycle.
+     */
+    void leastCostPathsBlocked(ForkJoinPool pool)
+    {	
+        double dist[] = new double[N*N];
+        int next[] = new int[N*N];
+        for( int i = 0; i < N; i++ )
+            for( int j = 0; j < N; j++ )
+            {	
+                dist[i*N+j] = defined[i][j]? c[i][j]: Double.POSITIVE_INFINITY;
+                next[i*N+j] = path[i][j];
+            }
+        new FloydWarshall(N, dist, next).run(pool);
+        for( int i = 0; i < N; i++ )
+            for( int j = 0; j < N; j++ )
+                if( dist[i*N+j] != Double.POSITIVE_INFINITY )
+                {	
+                    c[i][j] = (float) dist[i*N+j];
+                    path[i][j] = next[i*N+j];
+                    defined[i][j] = true;
+                }
+    }
+
     // </tex><tex file="check.tex">
     void checkValid()
     {	
@@ -270,6 +313,8 @@ public class CPP {
         G.addArc("a", 0, 1, 1).addArc("b", 0, 2, 1).addArc("c", 1, 2, 1)
         .addArc("d", 1, 3, 1).addArc("e", 2, 3, 1).addArc("f", 3, 0, 1);
         //</tex>
+        if( args.length > 0 && args[0].equals("-parallel") )
+            G.pool = ForkJoinPool.commonPool(); // blocked least cost search on all cores
         System.out.println("//<tex file=\"output.tex\">");
         //<tex file="test.tex">
 
@@ -410,6 +455,139 @@ class OpenCPP
     }
     //</tex>
 
+    /** start and end of an open route with its cost */
+    static class Route
+    {	
+        final int start, end; final float cost;
+        Route(int start, int end, float cost)
+        {	
+            this.start = start;
+            this.end = end;
+            this.cost = cost;
+        }
+    }
+
+    /** Finds the best open route over all start vertices and their possible end vertices.
+     *  The least cost paths are calculated once; the route from s to e is the closed
+     *  tour of the graph with a virtual arc from e to s (through a virtual vertex,
+     *  as in printCPT), each candidate is balanced on the pool. Only candidates whose
+     *  augmented graph is strongly connected are tried, as printCPT checks it.
+     *  Returns null if no candidate can be balanced.
+     */
+    Route findBest(ForkJoinPool pool)
+    {	
+        CPP base = new CPP(N);
+        for( int j = 0; j < arcs.size(); j++ )
+        {	
+            Arc it = arcs.elementAt(j);
+            base.addArc(it.lab, it.u, it.v, it.cost);
+        }
+        base.leastCostPaths(); // no negative arcs: no negative cycles
+        base.findUnbalanced();
+
+        int count = base.neg.length == 0? N: N*base.neg.length;
+        int start[] = new int[count], end[] = new int[count];
+        int k = 0;
+        for( int s = 0; s < N; s++ )
+            if( base.neg.length == 0 )
+            {	
+                if( !connects(base, s, s) ) continue;
+                start[k] = end[k] = s;
+                k++;
+            }
+            else for( int i = 0; i < base.neg.length; i++ )
+            {	
+                if( !connects(base, s, base.neg[i]) ) continue;
+                start[k] = s;
+                end[k] = base.neg[i];
+                k++;
+            }
+        if( k == 0 ) throw new Error("Graph is not strongly connected");
+        return pool.invoke(new Search(base, start, end, 0, k));
+    }
+
+    /** true if the graph with an arc from e to s is strongly connected, that is
+     *  every vertex is reached from s and reaches e; needs the least cost paths
+     */
+    static boolean connects(CPP base, int s, int e)
+    {	
+        for( int i = 0; i < base.N; i++ )
+            if( i != s && !base.defined[s][i] || i != e && !base.defined[i][e] ) return false;
+        return true;
+    }
+
+    /** evaluates the candidates from..to-1, splitting the range while it is large */
+    static class Search extends RecursiveTask<Route>
+    {	
+        static final long serialVersionUID = 1L;
+        static final int THRESHOLD = 4;
+        final CPP base; final int start[], end[]; final int from, to;
+
+        Search(CPP base, int start[], int end[], int from, int to)
+        {	
+            this.base = base;
+            this.start = start;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Route compute()
+        {	
+            if( to-from > THRESHOLD )
+            {	
+                int mid = (from+to) >>> 1;
+                Search left = new Search(base, start, end, from, mid);
+                left.fork();
+                Route right = new Search(base, start, end, mid, to).compute();
+                return better(left.join(), right);
+            }
+            int d[] = new int[base.N]; // buffers of this task
+            MinCostFlow flow = new MinCostFlow(base.c, base.defined);
+            Route best = null;
+            for( int k = from; k < to; k++ )
+                best = better(best, evaluate(start[k], end[k], d, flow));
+            return best;
+        }
+
+        Route evaluate(int s, int e, int d[], MinCostFlow flow)
+        {	
+            int N = base.N;
+            flow.setVirtualArc(e, s, 2*base.basicCost); // arcs e to virtual vertex to s
+            int nn = 0, np = 0;
+            for( int i = 0; i < N; i++ )
+            {	
+                d[i] = base.delta[i];
+                if( i == s ) d[i]--;
+                if( i == e ) d[i]++;
+                if( d[i] < 0 ) nn++;
+                else if( d[i] > 0 ) np++;
+            }
+            int neg[] = new int[nn], pos[] = new int[np];
+            nn = np = 0;
+            for( int i = 0; i < N; i++ )
+                if( d[i] < 0 ) neg[nn++] = i;
+                else if( d[i] > 0 ) pos[np++] = i;
+            try
+            {	
+                return new Route(s, e, base.basicCost+flow.solve(neg, pos, d, null));
+            }
+            catch( MinCostFlow.UnbalancedException ex )
+            {	
+                return null;
+            }
+        }
+
+        /** lower cost, earlier candidate on ties (a is always the earlier one) */
+        static Route better(Route a, Route b)
+        {	
+            if( a == null ) return b;
+            if( b == null ) return a;
+            return b.cost < a.cost? b: a;
+        }
+    }
+
     static void test()
     {	
         OpenCPP G = new OpenCPP(4); // create a graph of four vertices
@@ -433,6 +611,9 @@ class OpenCPP
         G.printCPT(besti);
         System.out.println("Cost = "+bestCost);
         System.out.println("// </tex>");
+        Route best = G.findBest(ForkJoinPool.commonPool());
+        if( best == null ) System.out.println("No open route can be balanced");
+        else System.out.println("Best open route from "+best.start+" to "+best.end+", cost = "+best.cost);
     }
     // <tex file="open.tex">	
 
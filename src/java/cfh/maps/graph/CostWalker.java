@@ -1,15 +1,14 @@
 package cfh.maps.graph;
 
+import static cfh.maps.graph.GraphPanel.PROP_MSG;
 import static cfh.maps.graph.GraphPanel.PROP_TRAIL;
 import static cfh.maps.graph.GraphPanel.Mode.NONE;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Graphics2D;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.util.List;
 
 import cfh.maps.gui.Point;
 
@@ -18,7 +17,6 @@ public class CostWalker implements Walker {
     private static final Color FLAG_COLOR = Color.GREEN.darker();
     private static final Color TRAIL_COLOR = Color.BLUE;
     
-    private Solver solver = null;
     private Trail trail = null;
     
     private final PropertyChangeSupport support = new PropertyChangeSupport(this);
@@ -37,16 +35,14 @@ public class CostWalker implements Walker {
     public void step(GraphPanel panel, Node start, Node node, Edge edge) {
         if (node == null) 
             return;
-        if (solver == null) {
-            solver = createSolver(panel.getGraph());
-        }
         if (start == null) {
             panel.setStart(node);
             support.firePropertyChange(PROP_TRAIL, null, getLength());
         } else {
             String old = getLength();
-            trail = solver.getTrail(start, node);
+            trail = panel.getGraph().getRouter().getTrail(start, node);
             panel.repaint();
+            support.firePropertyChange(PROP_MSG, null, (trail != null) ? "" : "no route to " + node);
             support.firePropertyChange(PROP_TRAIL, old, getLength());
         }
     }
@@ -68,14 +64,6 @@ public class CostWalker implements Walker {
         return String.format("%.1f", length);
     }
     
-    private static Solver createSolver(Graph graph) {
-        Solver result = new Solver(graph.getNodes().toArray(new Node[0]));
-        for (Edge edge : graph.getEdges()) {
-            result.addEdge(edge, edge.getNode1(), edge.getNode2(), edge.getLength());
-        }
-        return result;
-    }
-
 
     @Override
     public void paintNode(Graphics2D gg, Node node, int x, int y) {
@@ -86,12 +74,9 @@ public class CostWalker implements Walker {
     
     @Override
     public void paintEdge(Graphics2D gg, Edge edge, Point from, Point to) {
-        if (trail != null) {
-            List<Object> path = trail.getPath();
-            if (path.contains(edge)) {
-                gg.setColor(TRAIL_COLOR);
-                gg.setStroke(new BasicStroke(3));
-            }
+        if (trail != null && trail.contains(edge)) {
+            gg.setColor(TRAIL_COLOR);
+            gg.setStroke(GraphPanel.TRAIL_STROKE);
         }
     }
 
@@ -8,18 +8,26 @@ import cfh.maps.gui.Line;
 
 class Edge {
 
+    private final int index;
     private final List<Line> lines = new ArrayList<Line>();
     
     private Node node1;
     private Node node2;
     private double length = 0;
     
-    Edge(Line line, Node node1, Node node2) {
+    Edge(int index, Line line, Node node1, Node node2) {
+        if (index < 0) throw new IllegalArgumentException("negative index: " + index);
+        this.index = index;
         addLine(line);
         this.node1 = node1;
         this.node2 = node2;
     }
     
+    /** Position in the edge table of the {@link Graph}, stable while the edge exists. */
+    int getIndex() {
+        return index;
+    }
+    
     void setNode1(Node node) {
         node1 = node;
     }
@@ -0,0 +1,167 @@
+package cfh.maps.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Blocked (tiled) Floyd-Warshall on a flattened <code>n*n</code> matrix.
+ * <p>
+ * <code>dist[i*n+j]</code> holds the cost from <code>i</code> to <code>j</code>,
+ * {@link Double#POSITIVE_INFINITY} if not defined; <code>next[i*n+j]</code> the
+ * first node on that route. For each block of <code>k</code> the diagonal tile is
+ * done first, then the tiles of its row and column, and finally all remaining tiles;
+ * the tiles of the last two phases are independent and run as fork-join tasks.
+ */
+class FloydWarshall {
+
+    static final int DEFAULT_TILE = 64;
+
+    private final int n;
+    private final int tile;
+    private final int blocks;
+    private final double[] dist;
+    private final int[] next;
+
+    FloydWarshall(int n, double[] dist, int[] next) {
+        this(n, dist, next, DEFAULT_TILE);
+    }
+
+    FloydWarshall(int n, double[] dist, int[] next, int tile) {
+        if (n < 0) throw new IllegalArgumentException("negative size: " + n);
+        if (dist.length < n*n) throw new IllegalArgumentException("dist too short: " + dist.length);
+        if (next.length < n*n) throw new IllegalArgumentException("next too short: " + next.length);
+        if (tile < 1) throw new IllegalArgumentException("invalid tile size: " + tile);
+
+        this.n = n;
+        this.tile = tile;
+        this.blocks = (n + tile - 1) / tile;
+        this.dist = dist;
+        this.next = next;
+    }
+
+    /**
+     * Calculates all least cost routes, using <code>pool</code> for the independent tiles
+     * (sequential if <code>null</code>).
+     * @return <code>false</code> if stopped because a cycle with negative cost was found
+     */
+    boolean run(ForkJoinPool pool) {
+        return run(pool, Monitor.NONE);
+    }
+    
+    /**
+     * Like {@link #run(ForkJoinPool)}, checking <code>monitor</code> for cancellation before 
+     * each block; the arrays then hold valid, but not yet least, costs.
+     */
+    boolean run(ForkJoinPool pool, Monitor monitor) {
+        for (int kb = 0; kb < blocks; kb++) {
+            if (monitor.isCanceled())
+                throw new CancellationException("Floyd-Warshall canceled");
+            update(kb, kb, kb);
+
+            List<Tile> cross = new ArrayList<Tile>(2*blocks);
+            for (int b = 0; b < blocks; b++) {
+                if (b != kb) {
+                    cross.add(new Tile(kb, b, kb));
+                    cross.add(new Tile(b, kb, kb));
+                }
+            }
+            execute(pool, cross);
+
+            List<Tile> rest = new ArrayList<Tile>(blocks*blocks);
+            for (int ib = 0; ib < blocks; ib++) {
+                if (ib == kb)
+                    continue;
+                for (int jb = 0; jb < blocks; jb++) {
+                    if (jb != kb) {
+                        rest.add(new Tile(ib, jb, kb));
+                    }
+                }
+            }
+            execute(pool, rest);
+
+            for (int i = 0; i < n; i++) {
+                if (dist[i*n+i] < 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private void execute(ForkJoinPool pool, List<Tile> tiles) {
+        if (pool == null || tiles.size() < 2) {
+            for (Tile t : tiles) {
+                t.compute();
+            }
+        } else {
+            pool.invoke(new Tiles(tiles, 0, tiles.size()));
+        }
+    }
+
+    private void update(int ib, int jb, int kb) {
+        int i0 = ib * tile, i1 = Math.min(i0 + tile, n);
+        int j0 = jb * tile, j1 = Math.min(j0 + tile, n);
+        int k0 = kb * tile, k1 = Math.min(k0 + tile, n);
+        for (int k = k0; k < k1; k++) {
+            int kn = k * n;
+            for (int i = i0; i < i1; i++) {
+                int in = i * n;
+                double dik = dist[in+k];
+                if (dik == Double.POSITIVE_INFINITY)
+                    continue;
+                int nik = next[in+k];
+                for (int j = j0; j < j1; j++) {
+                    double c = dik + dist[kn+j];
+                    if (c < dist[in+j]) {
+                        dist[in+j] = c;
+                        next[in+j] = nik;
+                    }
+                }
+            }
+        }
+    }
+
+    private class Tile {
+        private final int ib;
+        private final int jb;
+        private final int kb;
+
+        Tile(int ib, int jb, int kb) {
+            this.ib = ib;
+            this.jb = jb;
+            this.kb = kb;
+        }
+
+        void compute() {
+            update(ib, jb, kb);
+        }
+    }
+
+    private static class Tiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<Tile> tiles;
+        private final int from;
+        private final int to;
+
+        Tiles(List<Tile> tiles, int from, int to) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 4) {
+                for (int i = from; i < to; i++) {
+                    tiles.get(i).compute();
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Tiles(tiles, from, mid), new Tiles(tiles, mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the classic Floyd-Warshall loop with {@link FloydWarshall} for an
+ * increasing number of threads.
+ * <p>
+ * Arguments: <code>[side [tile [repeat]]]</code>, the graph is a grid of
+ * <code>side*side</code> nodes with random edge costs.
+ */
+public class FloydWarshallBenchmark {
+
+    public static void main(String[] args) {
+        int side = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int tile = (args.length > 1) ? Integer.parseInt(args[1]) : FloydWarshall.DEFAULT_TILE;
+        int repeat = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+
+        int n = side * side;
+        double[] dist = createGrid(side, new Random(1));
+        int[] next = new int[n*n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                next[i*n+j] = j;
+            }
+        }
+        System.out.printf("nodes: %d, tile: %d, cores: %d%n", n, tile, Runtime.getRuntime().availableProcessors());
+
+        double[] expected = null;
+        long base = Long.MAX_VALUE;
+        for (int r = 0; r < repeat; r++) {
+            double[][] d = new double[n][];
+            int[][] p = new int[n][];
+            for (int i = 0; i < n; i++) {
+                d[i] = Arrays.copyOfRange(dist, i*n, i*n+n);
+                p[i] = Arrays.copyOfRange(next, i*n, i*n+n);
+            }
+            long t0 = System.nanoTime();
+            classic(n, d, p);
+            base = Math.min(base, System.nanoTime() - t0);
+            if (expected == null) {
+                expected = new double[n*n];
+                for (int i = 0; i < n; i++) {
+                    System.arraycopy(d[i], 0, expected, i*n, n);
+                }
+            }
+        }
+        System.out.printf("classic:       %8.1f ms%n", base / 1e6);
+
+        int max = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(2*threads, max)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < repeat; r++) {
+                    double[] d = dist.clone();
+                    int[] p = next.clone();
+                    long t0 = System.nanoTime();
+                    new FloydWarshall(n, d, p, tile).run(pool);
+                    best = Math.min(best, System.nanoTime() - t0);
+                    if (!Arrays.equals(d, expected))
+                        throw new AssertionError("different result with " + threads + " threads");
+                }
+                System.out.printf("blocked %3d:   %8.1f ms  speedup %5.2f%n", threads, best / 1e6, (double) base / best);
+            } finally {
+                pool.shutdown();
+            }
+            if (threads == max)
+                break;
+        }
+    }
+
+    private static double[] createGrid(int side, Random random) {
+        int n = side * side;
+        double[] dist = new double[n*n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            dist[i*n+i] = 0;
+        }
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                int i = y*side + x;
+                if (x+1 < side) {
+                    double c = 10 + random.nextInt(90);
+                    dist[i*n+i+1] = c;
+                    dist[(i+1)*n+i] = c;
+                }
+                if (y+1 < side) {
+                    double c = 10 + random.nextInt(90);
+                    dist[i*n+i+side] = c;
+                    dist[(i+side)*n+i] = c;
+                }
+            }
+        }
+        return dist;
+    }
+
+    private static void classic(int n, double[][] cost, int[][] next) {
+        for (int k = 0; k < n; k++) {
+            for (int i = 0; i < n; i++) {
+                double dik = cost[i][k];
+                if (dik == Double.POSITIVE_INFINITY)
+                    continue;
+                for (int j = 0; j < n; j++) {
+                    double c = dik + cost[k][j];
+                    if (c < cost[i][j]) {
+                        cost[i][j] = c;
+                        next[i][j] = next[i][k];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package cfh.maps.graph;
 
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import cfh.maps.gui.Line;
 import cfh.maps.gui.Map;
@@ -13,8 +15,20 @@ import cfh.maps.gui.Point;
 
 public class Graph {
 
-    private final Set<Node> nodes = new HashSet<Node>();
-    private final Set<Edge> edges = new HashSet<Edge>();
+    private final Table<Node> nodes = new Table<Node>();
+    private final Table<Edge> edges = new Table<Edge>();
+    
+    private int version = 0;
+    
+    private Solver.Mode solverMode = Solver.Mode.SPARSE;
+    
+    // calculated for version, dropped when the graph changes
+    private Solver solver = null;
+    private int solverVersion = -1;
+    private Router router = null;
+    private int routerVersion = -1;
+    private GridIndex index = null;
+    private int indexVersion = -1;
     
     public static Graph create(Map map) {
         char[] id = {'A', 'A'};
@@ -54,25 +68,73 @@ public class Graph {
     }
     
     Node createNode(String id, Point point) {
-        Node node = new Node(id, point);
+        Node node = new Node(nodes.getCapacity(), id, point);
         nodes.add(node);
+        changed();
         return node;
     }
     
     Edge createEdge(Line line, Node node1, Node node2) {
-        Edge edge = new Edge(line, node1, node2);
+        Edge edge = new Edge(edges.getCapacity(), line, node1, node2);
         edges.add(edge);
         node1.addEdge(edge);
         node2.addEdge(edge);
+        changed();
         return edge;
     }
     
     void removeNode(Node node) {
-        nodes.remove(node);
+        if (nodes.remove(node.getIndex(), node)) {
+            changed();
+        }
     }
     
     void removeEdge(Edge edge) {
-        edges.remove(edge);
+        if (edges.remove(edge.getIndex(), edge)) {
+            changed();
+        }
+    }
+    
+    synchronized Solver.Mode getSolverMode() {
+        return solverMode;
+    }
+    
+    /** Storage and algorithm of the solvers built from now on. */
+    synchronized void setSolverMode(Solver.Mode mode) {
+        if (mode == null) throw new IllegalArgumentException("null mode");
+        if (mode != solverMode) {
+            solverMode = mode;
+            solver = null;
+        }
+    }
+    
+    /** Solver for the actual graph, shared until the graph or the solver mode changes. */
+    synchronized Solver getSolver() {
+        if (solver == null || solverVersion != version) {
+            solver = null;  // release the old one before building
+            solver = Solver.create(this, solverMode);
+            solverVersion = version;
+        }
+        return solver;
+    }
+    
+    /** Router for the actual graph, shared until the graph changes. */
+    synchronized Router getRouter() {
+        if (router == null || routerVersion != version) {
+            router = null;  // release the old one before building
+            router = Router.create(this);
+            routerVersion = version;
+        }
+        return router;
+    }
+    
+    /** Router already built for the actual graph, <code>null</code> if none; never builds one. */
+    synchronized Router peekRouter() {
+        return (routerVersion == version) ? router : null;
+    }
+    
+    private synchronized void changed() {
+        version += 1;
     }
 
     Collection<Node> getNodes() {
@@ -82,49 +144,62 @@ public class Graph {
     Collection<Edge> getEdges() {
         return Collections.unmodifiableCollection(edges); 
     }
+    
+    /** Node with the given index, <code>null</code> if removed. */
+    Node getNode(int index) {
+        return nodes.get(index);
+    }
+    
+    /** Edge with the given index, <code>null</code> if removed. */
+    Edge getEdge(int index) {
+        return edges.get(index);
+    }
+    
+    /** Upper bound (exclusive) of all node indices, size for arrays indexed by node. */
+    int getNodeCapacity() {
+        return nodes.getCapacity();
+    }
+    
+    /** Upper bound (exclusive) of all edge indices, size for arrays indexed by edge. */
+    int getEdgeCapacity() {
+        return edges.getCapacity();
+    }
 
     Node findNode(int x, int y, int minDistance) {
-        Node found = null;
-        double dist = minDistance;
-        for (Node node : nodes) {
-            Point point = node.getPoint();
-            double d = point.distanceTo(x, y);
-            if (d <= dist) {
-                found = node;
-                dist = d;
-            }
-        }
-        return found;
+        return getIndex().findNode(x, y, minDistance);
     }
     
     Edge findEdge(int x, int y, int minDistance) {
-        Edge found = null;
-        double dist = minDistance;
-        for (Edge edge : edges) {
-            for (Line line : edge.getLines()) {
-                double d = line.distanceTo(x, y);
-                if (d <= dist) {
-                    found = edge;
-                    dist = d;
-                }
-            }
+        return getIndex().findEdge(x, y, minDistance);
+    }
+    
+    /** Spatial index of the actual graph, shared until the graph changes. */
+    synchronized GridIndex getIndex() {
+        if (index == null || indexVersion != version) {
+            index = new GridIndex(this);
+            indexVersion = version;
         }
-        return found;
+        return index;
     }
     
     void compact() {
-        Set<Node> dead = new HashSet<Node>();
-        for (Node node : nodes) {
+        int old = nodes.size() + edges.size();
+        for (int i = 0; i < nodes.getCapacity(); i++) {
+            Node node = nodes.get(i);
+            if (node == null)
+                continue;
             switch (node.getEdgeCount()) {
                 case 0:
                     assert node.getEdges().size() == 0 : node.getEdges();
-                    dead.add(node);
+                    nodes.remove(i, node);
                     break;
                 case 2:
                     List<Edge> nodeEdges = node.getEdges();
                     assert nodeEdges.size() == 2 : nodeEdges;
                     Edge e1 = nodeEdges.get(0);
                     Edge e2 = nodeEdges.get(1);
+                    if (e1 == e2)  // only a loop, nothing to join
+                        break;
                     Node n = (e2.getNode1() == node) ? e2.getNode2() : e2.getNode1();
                     if (n.removeEdge(e2)) {
                         e1.addLines(e2.getLines());
@@ -134,16 +209,87 @@ public class Graph {
                             e1.setNode2(n);
                         }
                         n.addEdge(e1);
-                        edges.remove(e2);
-                        dead.add(node);
+                        edges.remove(e2.getIndex(), e2);
+                        nodes.remove(i, node);
                     }
                     break;
                 default:  // do nothing 
                     break;
             }
         }
-        for (Node node : dead) {
-            nodes.remove(node);
+        if (nodes.size() + edges.size() != old) {
+            changed();
+        }
+    }
+    
+    /**
+     * Elements stored by their index, removed slots stay empty so the indices 
+     * of the other elements do not change.
+     */
+    private static class Table<T> extends AbstractCollection<T> {
+        
+        private final List<T> slots = new ArrayList<T>();
+        private int size = 0;
+        
+        int getCapacity() {
+            return slots.size();
+        }
+        
+        T get(int index) {
+            return (index >= 0 && index < slots.size()) ? slots.get(index) : null;
+        }
+        
+        @Override
+        public boolean add(T element) {
+            slots.add(element);
+            size += 1;
+            return true;
+        }
+        
+        boolean remove(int index, T element) {
+            if (get(index) != element)
+                return false;
+            slots.set(index, null);
+            size -= 1;
+            return true;
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int next = skip(0);
+                
+                private int skip(int index) {
+                    while (index < slots.size() && slots.get(index) == null) {
+                        index += 1;
+                    }
+                    return index;
+                }
+                
+                @Override
+                public boolean hasNext() {
+                    return next < slots.size();
+                }
+                
+                @Override
+                public T next() {
+                    if (next >= slots.size())
+                        throw new NoSuchElementException();
+                    T result = slots.get(next);
+                    next = skip(next+1);
+                    return result;
+                }
+                
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
     }
 }
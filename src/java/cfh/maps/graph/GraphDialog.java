@@ -6,18 +6,18 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Frame;
-import java.awt.Image;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.Collection;
-import java.util.HashSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -33,6 +33,7 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
     private static final String CMD_START = "START";
     private static final String CMD_COST = "COST";
     private static final String CMD_SOLVE = "SOLVE";
+    private static final String CMD_SOLVER_MODE = "SOLVER_MODE";
     private static final String CMD_WALK = "WALK";
     private static final String CMD_STAT = "STAT";
     
@@ -40,10 +41,12 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
     private final JLabel statusMsg;
     private final JLabel statusTrail;
     
+    private final JComboBox<Solver.Mode> solverMode;
+    
     private final GraphPanel graphPanel;
     private final ManualWalker manualWalker;
     
-    public GraphDialog(Frame owner, Graph graph, Image image) {
+    public GraphDialog(Frame owner, Graph graph, BufferedImage image) {
         super(owner, "GRAPH");
         
         Box buttons = Box.createHorizontalBox();
@@ -63,9 +66,22 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
             + "</dl>"));
         buttons.add(Box.createHorizontalStrut(10));
         buttons.add(newJButton(CMD_SOLVE, "Solve", "<html>Activates Solver:<dl>"
-            + "<dt>left-click</dt><dd>1st click calculate unbalanced points; further clicks do normalization</dd>"
-            + "<dt>right-click</dt><dd>clear unbalanced points</dd>"
+            + "<dt>left-click</dt><dd>1st click calculate unbalanced points; further clicks calculate the tour from start (or clicked) point</dd>"
+            + "<dt>right-click</dt><dd>clear tour or unbalanced points</dd>"
             + "</dl>"));
+        solverMode = new JComboBox<Solver.Mode>(Solver.Mode.values());
+        solverMode.setSelectedItem(graph.getSolverMode());
+        solverMode.setToolTipText("<html>Solver mode:<dl>"
+            + "<dt>DENSE</dt><dd>all pairs on N*N matrices</dd>"
+            + "<dt>COMPACT</dt><dd>all pairs on flat arrays, about half the memory of DENSE</dd>"
+            + "<dt>PARALLEL</dt><dd>like COMPACT, using all cores</dd>"
+            + "<dt>SPARSE</dt><dd>routes only from the unbalanced points</dd>"
+            + "</dl>");
+        solverMode.setActionCommand(CMD_SOLVER_MODE);
+        solverMode.addActionListener(this);
+        solverMode.setMaximumSize(solverMode.getPreferredSize());
+        buttons.add(Box.createHorizontalStrut(5));
+        buttons.add(solverMode);
         buttons.add(Box.createHorizontalStrut(30));
         buttons.add(newJButton(CMD_WALK, "Walk","<html>Activates Manual Walk mode:<dl>"
             + "<dt>left-click</dt><dd>add line to last point</dd>"
@@ -103,7 +119,7 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
         validate();
         setLocationRelativeTo(null);
         
-        manualWalker = new ManualWalker();
+        manualWalker = new ManualWalker(graph);
         manualWalker.addChangeListener(this);
     }
     
@@ -136,6 +152,7 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
     
     private void doCompact() {
         graphPanel.getGraph().compact();
+        manualWalker.reset();
         graphPanel.repaint();
     }
     
@@ -155,6 +172,10 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
         graphPanel.setWalker(walker);
     }
 
+    private void doSolverMode() {
+        graphPanel.getGraph().setSolverMode((Solver.Mode) solverMode.getSelectedItem());
+    }
+
     private void doWalk() {
         graphPanel.setWalker(manualWalker);
     }
@@ -185,7 +206,7 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
             text.append(String.format("  [%d] = %d%n", i, hist[i]));
         }
         
-        text.append("\n");
+        text.append(String.format("%n"));
         text.append(String.format("edges: %d%n", edges.size()));
         
         double length;
@@ -194,24 +215,18 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
             length += edge.getLength();
         }
         text.append(String.format("total:    %7.1f%n", length));
-        text.append("\n");
+        text.append(String.format("%n"));
         
-        length = 0;
-        double repeated = 0;
-        HashSet<Edge> open = new HashSet<Edge>(edges);
-        for (Edge edge : manualWalker.getTrail()) {
-            length += edge.getLength();
-            if (!open.remove(edge)) {
-                repeated += edge.getLength();
-            }
-        }
-        double opLength = 0;
-        for (Edge edge : open) {
-            opLength += edge.getLength();
+        text.append(String.format("open:     %7.1f%n", manualWalker.getOpenLength()));
+        text.append(String.format("trail:    %7.1f%n", manualWalker.getTrailLength()));
+        text.append(String.format("repeated: %7.1f%n", manualWalker.getRepeatedLength()));
+        
+        Router router = graph.peekRouter();  // statistics only, do not build one
+        if (router != null) {
+            text.append(String.format("%n"));
+            text.append(String.format("router:   %d landmarks%n", router.getLandmarkCount()));
+            text.append(String.format("visited:  %d of %d nodes by last route%n", router.getVisited(), nodes.size()));
         }
-        text.append(String.format("open:     %7.1f%n", opLength));
-        text.append(String.format("trail:    %7.1f%n", length));
-        text.append(String.format("repeated: %7.1f%n", repeated));
         
         text.append(String.format("%n"));
         
@@ -229,6 +244,8 @@ public class GraphDialog extends JDialog implements ActionListener, PropertyChan
             doCost();
         } else if (command == CMD_SOLVE) {
             doSolve();
+        } else if (command == CMD_SOLVER_MODE) {
+            doSolverMode();
         } else if (command == CMD_WALK) {
             doWalk();
         } else if (command == CMD_STAT) {
@@ -4,19 +4,21 @@ import static cfh.maps.graph.GraphPanel.Mode.NONE;
 import static cfh.maps.graph.GraphPanel.Mode.WALKER;
 import static java.lang.Math.abs;
 
-import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Composite;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 
@@ -24,6 +26,7 @@ import javax.swing.JPanel;
 
 import cfh.maps.gui.Line;
 import cfh.maps.gui.Point;
+import cfh.maps.gui.TileCache;
 
 class GraphPanel extends JPanel {
 
@@ -38,21 +41,38 @@ class GraphPanel extends JPanel {
     private static final int EDGEDIST = 5;
     
     private static final Color START_COLOR = Color.ORANGE;
+    private static final Color GRAPH_COLOR = Color.GRAY.darker();
+    
+    static final Stroke TRAIL_STROKE = new BasicStroke(3);
+    static final Stroke REPEATED_STROKE = new BasicStroke(5);
+    private static final Stroke MARK_STROKE = new BasicStroke(3);
+    private static final Polygon FLAG = new Polygon(new int[] {4, 14, 2}, new int[] {-20, -15, -10}, 3);
+    
+    /** Reach of labels, flags and marks outside the lines and nodes. */
+    private static final int MARGIN = 48;
     
     private final Graph graph;
-    private final Image image;
+    private final TileCache background;  // image at half opacity
     
     private Mode mode;
     private Walker walker = null;
     
     private Node startNode = null;
     
+    // painting, reused while the index, font and rendering context stay the same
+    private int[] found = new int[0];
+    private GridIndex labelIndex = null;
+    private Font labelFont = null;
+    private FontRenderContext labelContext = null;
+    private GlyphVector[] lineLabels = null;
+    private GlyphVector[] nodeLabels = null;
+    
     private final PropertyChangeSupport support = new PropertyChangeSupport(this);
     
-    GraphPanel(Graph graph, Image image) {
+    GraphPanel(Graph graph, BufferedImage image) {
         if (graph == null) throw new IllegalArgumentException("null graph");
         this.graph = graph;
-        this.image = image;
+        this.background = (image != null) ? new TileCache(image, 0.5F) : null;
         
         setMode(NONE);
         
@@ -150,8 +170,8 @@ class GraphPanel extends JPanel {
     
     @Override
     public Dimension getPreferredSize() {
-        if (image != null)
-            return new Dimension(image.getWidth(this), image.getHeight(this));
+        if (background != null)
+            return new Dimension(background.getWidth(), background.getHeight());
         else
             return super.getPreferredSize();
     }
@@ -161,69 +181,107 @@ class GraphPanel extends JPanel {
         super.paintComponent(g);
         Graphics2D gg = (Graphics2D) g.create();
         try {
-            Composite composite = gg.getComposite();
-            gg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5F));
-            gg.drawImage(image, 0, 0, this);
-            gg.setComposite(composite);
+            if (background != null) {
+                background.paint(gg, this);
+            }
 
-            gg.setColor(Color.GRAY.darker());
+            // only what is near the clip, color and stroke reset instead of new graphics
+            GridIndex index = graph.getIndex();
+            Rectangle clip = gg.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            int x0 = clip.x - MARGIN;
+            int y0 = clip.y - MARGIN;
+            int x1 = clip.x + clip.width + MARGIN;
+            int y1 = clip.y + clip.height + MARGIN;
+            prepareLabels(gg, index);
+            Stroke stroke = gg.getStroke();
             
-            for (Edge edge : graph.getEdges()) {
-                drawEdge(gg, edge);
+            int count = index.findLines(x0, y0, x1, y1, found);
+            for (int k = 0; k < count; k++) {
+                drawLine(gg, index, found[k], stroke);
             }
 
-            for (Node node : graph.getNodes()) {
-                drawNode(gg, node);
+            count = index.findNodes(x0, y0, x1, y1, found);
+            for (int k = 0; k < count; k++) {
+                drawNode(gg, index, found[k], stroke);
             }
         } finally {
             gg.dispose();
         }
     }
 
-    private void drawNode(Graphics2D gg, Node node) {
+    /** Labels are laid out once for each index and font, the buffer is sized for the index. */
+    private void prepareLabels(Graphics2D gg, GridIndex index) {
+        Font font = gg.getFont();
+        FontRenderContext context = gg.getFontRenderContext();
+        if (index != labelIndex || !font.equals(labelFont) || !context.equals(labelContext)) {
+            labelIndex = index;
+            labelFont = font;
+            labelContext = context;
+            lineLabels = new GlyphVector[index.getLineCount()];
+            nodeLabels = new GlyphVector[index.getNodeCount()];
+            found = new int[Math.max(index.getLineCount(), index.getNodeCount())];
+        }
+    }
+
+    private void drawNode(Graphics2D gg, GridIndex index, int i, Stroke stroke) {
+        Node node = index.getNode(i);
         Point point = node.getPoint();
         int x = point.getX();
         int y = point.getY();
         
-        Graphics2D tmp = (Graphics2D) gg.create();
+        gg.setColor(GRAPH_COLOR);
+        gg.setStroke(stroke);
         if (mode == WALKER) {
-            walker.paintNode(tmp, node, x, y);
+            walker.paintNode(gg, node, x, y);
         }
-        tmp.fillOval(x-3, y-3, 6, 6);
-        tmp.dispose();
+        gg.fillOval(x-3, y-3, 6, 6);
         
-        gg.drawString(node.getId(), x-6, y-6);
+        gg.setColor(GRAPH_COLOR);
+        gg.setStroke(stroke);
+        GlyphVector label = nodeLabels[i];
+        if (label == null) {
+            label = labelFont.createGlyphVector(labelContext, node.getId());
+            nodeLabels[i] = label;
+        }
+        gg.drawGlyphVector(label, x-6, y-6);
         
         if (node == startNode) {
             drawFlag(gg, x, y, START_COLOR);
         }
     }
     
-    private void drawEdge(Graphics2D gg, Edge edge) {
-        for (Line line : edge.getLines()) {
-            Point from = line.getFrom();
-            Point to = line.getTo();
+    private void drawLine(Graphics2D gg, GridIndex index, int s, Stroke stroke) {
+        Line line = index.getLine(s);
+        Point from = line.getFrom();
+        Point to = line.getTo();
 
-            Graphics2D tmp = (Graphics2D) gg.create();
-            if (mode == WALKER) {
-                walker.paintEdge(tmp, edge, from, to);
-            }
-            tmp.drawLine(from.getX(), from.getY(), to.getX(), to.getY());
-            tmp.dispose();
+        gg.setColor(GRAPH_COLOR);
+        gg.setStroke(stroke);
+        if (mode == WALKER) {
+            walker.paintEdge(gg, index.getLineEdge(s), from, to);
+        }
+        gg.drawLine(from.getX(), from.getY(), to.getX(), to.getY());
         
-            double dist = line.getLength();
-            String txt = String.format("%.0f", dist);
-            if (abs(from.getX()-to.getX()) > abs(from.getY()-to.getY())) {
-                gg.drawString(txt, (from.getX()+to.getX())/2-16, (from.getY()+to.getY())/2-6);
-            } else {
-                gg.drawString(txt, (from.getX()+to.getX())/2+6, (from.getY()+to.getY())/2+4);
-            }
+        gg.setColor(GRAPH_COLOR);
+        gg.setStroke(stroke);
+        GlyphVector label = lineLabels[s];
+        if (label == null) {
+            label = labelFont.createGlyphVector(labelContext, String.format("%.0f", index.getLineLength(s)));
+            lineLabels[s] = label;
+        }
+        if (abs(from.getX()-to.getX()) > abs(from.getY()-to.getY())) {
+            gg.drawGlyphVector(label, (from.getX()+to.getX())/2-16, (from.getY()+to.getY())/2-6);
+        } else {
+            gg.drawGlyphVector(label, (from.getX()+to.getX())/2+6, (from.getY()+to.getY())/2+4);
         }
     }
     
     static void drawMarkedNode(Graphics2D gg, int x, int y) {
         Stroke tmp = gg.getStroke();
-        gg.setStroke(new BasicStroke(3));
+        gg.setStroke(MARK_STROKE);
         gg.drawOval(x-7, y-7, 14, 14);
         gg.setStroke(tmp);
     }
@@ -232,11 +290,9 @@ class GraphPanel extends JPanel {
         Color tmp = gg.getColor();
         gg.setColor(color);
         gg.drawLine(x, y, x+4, y-20);
-        Polygon pol = new Polygon();
-        pol.addPoint(x+4, y-20);
-        pol.addPoint(x+14, y-15);
-        pol.addPoint(x+2, y-10);
-        gg.fillPolygon(pol);
+        gg.translate(x, y);
+        gg.fillPolygon(FLAG);
+        gg.translate(-x, -y);
         gg.setColor(tmp);
     }
 
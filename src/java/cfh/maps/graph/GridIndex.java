@@ -0,0 +1,292 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+
+import cfh.maps.gui.Line;
+import cfh.maps.gui.Point;
+
+/**
+ * Uniform grid over the node points and the edge lines of a {@link Graph}, built once
+ * for hit-testing; each cell lists the points inside it and the lines whose hit area
+ * touches it. Results are the same as the linear search with {@link Point#distanceTo(int, int)}
+ * and {@link Line#distanceTo(int, int)}.
+ * <p>
+ * The box queries for painting reuse their buffers, they must only be used by one thread.
+ */
+class GridIndex {
+
+    private static final int CELL_SIZE = 32;
+
+    private final Cells nodeCells;
+    private final Node[] nodes;
+    private final int[] nodeX;
+    private final int[] nodeY;
+
+    private final Cells lineCells;
+    private final Line[] lines;
+    private final Edge[] lineEdge;
+    private final int[] x1;
+    private final int[] y1;
+    private final int[] x2;
+    private final int[] y2;
+    private final double[] length;
+    
+    private final int[] lineStamp;  // number of the box query that found the line
+    private int query = 0;
+
+    GridIndex(Graph graph) {
+        if (graph == null) throw new IllegalArgumentException("null graph");
+
+        nodes = graph.getNodes().toArray(new Node[0]);
+        nodeX = new int[nodes.length];
+        nodeY = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodeX[i] = nodes[i].getPoint().getX();
+            nodeY[i] = nodes[i].getPoint().getY();
+        }
+        nodeCells = new Cells(nodeX, nodeY, nodeX, nodeY);
+
+        int count = 0;
+        for (Edge edge : graph.getEdges()) {
+            count += edge.getLines().size();
+        }
+        lines = new Line[count];
+        lineEdge = new Edge[count];
+        x1 = new int[count];
+        y1 = new int[count];
+        x2 = new int[count];
+        y2 = new int[count];
+        length = new double[count];
+        // hit area of Line.distanceTo: the line prolonged by SCALE^2 (u <= 1 with scaled length)
+        int[] hx2 = new int[count];
+        int[] hy2 = new int[count];
+        double factor = Line.SCALE * Line.SCALE;
+        int s = 0;
+        for (Edge edge : graph.getEdges()) {
+            for (Line line : edge.getLines()) {
+                lines[s] = line;
+                lineEdge[s] = edge;
+                x1[s] = line.getFrom().getX();
+                y1[s] = line.getFrom().getY();
+                x2[s] = line.getTo().getX();
+                y2[s] = line.getTo().getY();
+                length[s] = line.getLength();
+                hx2[s] = x1[s] + (int) Math.ceil(Math.abs(x2[s]-x1[s]) * factor) * Integer.signum(x2[s]-x1[s]);
+                hy2[s] = y1[s] + (int) Math.ceil(Math.abs(y2[s]-y1[s]) * factor) * Integer.signum(y2[s]-y1[s]);
+                s += 1;
+            }
+        }
+        lineCells = new Cells(x1, y1, hx2, hy2);
+        lineStamp = new int[count];
+    }
+    
+    int getNodeCount() {
+        return nodes.length;
+    }
+    
+    Node getNode(int i) {
+        return nodes[i];
+    }
+    
+    int getLineCount() {
+        return lines.length;
+    }
+    
+    Line getLine(int s) {
+        return lines[s];
+    }
+    
+    Edge getLineEdge(int s) {
+        return lineEdge[s];
+    }
+    
+    /** Length of the line, as {@link Line#getLength()}. */
+    double getLineLength(int s) {
+        return length[s];
+    }
+    
+    /**
+     * Puts the nodes inside the box in <code>result</code>, which must have room for 
+     * {@link #getNodeCount()} entries. 
+     * @return the number of nodes found
+     */
+    int findNodes(int bx0, int by0, int bx1, int by1, int[] result) {
+        int count = 0;
+        for (int cy = nodeCells.row(by0); cy <= nodeCells.row(by1); cy++) {
+            for (int cx = nodeCells.column(bx0); cx <= nodeCells.column(bx1); cx++) {
+                int cell = nodeCells.cell(cx, cy);
+                for (int k = nodeCells.begin(cell); k < nodeCells.end(cell); k++) {
+                    int i = nodeCells.item(k);
+                    if (bx0 <= nodeX[i] && nodeX[i] <= bx1 && by0 <= nodeY[i] && nodeY[i] <= by1) {
+                        result[count++] = i;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Puts the lines in cells touching the box in <code>result</code>, each once; it must
+     * have room for {@link #getLineCount()} entries. Some lines may be outside the box.
+     * @return the number of lines found
+     */
+    int findLines(int bx0, int by0, int bx1, int by1, int[] result) {
+        query += 1;
+        int count = 0;
+        for (int cy = lineCells.row(by0); cy <= lineCells.row(by1); cy++) {
+            for (int cx = lineCells.column(bx0); cx <= lineCells.column(bx1); cx++) {
+                int cell = lineCells.cell(cx, cy);
+                for (int k = lineCells.begin(cell); k < lineCells.end(cell); k++) {
+                    int s = lineCells.item(k);
+                    if (lineStamp[s] != query) {
+                        lineStamp[s] = query;
+                        result[count++] = s;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Nearest node not more than <code>minDistance</code> away, <code>null</code> if none. */
+    Node findNode(int x, int y, int minDistance) {
+        Node found = null;
+        long dist = (long) minDistance * minDistance;
+        int cx0 = nodeCells.column(x - minDistance);
+        int cx1 = nodeCells.column(x + minDistance);
+        int cy0 = nodeCells.row(y - minDistance);
+        int cy1 = nodeCells.row(y + minDistance);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                int cell = nodeCells.cell(cx, cy);
+                for (int k = nodeCells.begin(cell); k < nodeCells.end(cell); k++) {
+                    int i = nodeCells.item(k);
+                    long dx = nodeX[i] - x;
+                    long dy = nodeY[i] - y;
+                    long d = dx*dx + dy*dy;
+                    if (d <= dist) {
+                        found = nodes[i];
+                        dist = d;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Edge with the nearest line not more than <code>minDistance</code> away, <code>null</code> if none. */
+    Edge findEdge(int x, int y, int minDistance) {
+        Edge found = null;
+        double dist = minDistance;
+        int reach = (int) Math.ceil(minDistance * Line.SCALE);  // distanceTo divides by the scaled length
+        int cx0 = lineCells.column(x - reach);
+        int cx1 = lineCells.column(x + reach);
+        int cy0 = lineCells.row(y - reach);
+        int cy1 = lineCells.row(y + reach);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                int cell = lineCells.cell(cx, cy);
+                for (int k = lineCells.begin(cell); k < lineCells.end(cell); k++) {
+                    int s = lineCells.item(k);
+                    // as Line.distanceTo, with the length calculated once
+                    double l = length[s];
+                    double u = ((x-x1[s])*(x2[s]-x1[s]) + (y-y1[s])*(y2[s]-y1[s])) / (l*l);
+                    if (0.0 <= u && u <= 1.0) {
+                        double d = Math.abs((x2[s]-x1[s])*(y1[s]-y) - (x1[s]-x)*(y2[s]-y1[s])) / l;
+                        if (d <= dist) {
+                            found = lineEdge[s];
+                            dist = d;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Compressed cell lists of items given by their bounding boxes;
+     * positions outside the grid are clamped to the border cells.
+     */
+    private static class Cells {
+
+        private final int minX;
+        private final int minY;
+        private final int size;
+        private final int columns;
+        private final int rows;
+        private final int[] start;
+        private final int[] items;
+
+        Cells(int[] ax, int[] ay, int[] bx, int[] by) {
+            int n = ax.length;
+            int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+            int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                x0 = Math.min(x0, Math.min(ax[i], bx[i]));
+                y0 = Math.min(y0, Math.min(ay[i], by[i]));
+                x1 = Math.max(x1, Math.max(ax[i], bx[i]));
+                y1 = Math.max(y1, Math.max(ay[i], by[i]));
+            }
+            if (n == 0) {
+                x0 = y0 = x1 = y1 = 0;
+            }
+            // not much more cells than items
+            int cell = CELL_SIZE;
+            while ((long) ((x1-x0)/cell + 1) * ((y1-y0)/cell + 1) > 4L * n + 16) {
+                cell *= 2;
+            }
+            minX = x0;
+            minY = y0;
+            size = cell;
+            columns = (x1-x0)/cell + 1;
+            rows = (y1-y0)/cell + 1;
+
+            start = new int[columns*rows + 1];
+            for (int i = 0; i < n; i++) {
+                for (int cy = row(Math.min(ay[i], by[i])); cy <= row(Math.max(ay[i], by[i])); cy++) {
+                    for (int cx = column(Math.min(ax[i], bx[i])); cx <= column(Math.max(ax[i], bx[i])); cx++) {
+                        start[cell(cx, cy)+1] += 1;
+                    }
+                }
+            }
+            for (int c = 0; c < columns*rows; c++) {
+                start[c+1] += start[c];
+            }
+            items = new int[start[columns*rows]];
+            int[] fill = Arrays.copyOf(start, columns*rows);
+            for (int i = 0; i < n; i++) {
+                for (int cy = row(Math.min(ay[i], by[i])); cy <= row(Math.max(ay[i], by[i])); cy++) {
+                    for (int cx = column(Math.min(ax[i], bx[i])); cx <= column(Math.max(ax[i], bx[i])); cx++) {
+                        items[fill[cell(cx, cy)]++] = i;
+                    }
+                }
+            }
+        }
+
+        int column(int x) {
+            return Math.max(0, Math.min(columns-1, (x - minX) / size));
+        }
+
+        int row(int y) {
+            return Math.max(0, Math.min(rows-1, (y - minY) / size));
+        }
+
+        int cell(int column, int row) {
+            return row * columns + column;
+        }
+
+        int begin(int cell) {
+            return start[cell];
+        }
+
+        int end(int cell) {
+            return start[cell+1];
+        }
+
+        int item(int k) {
+            return items[k];
+        }
+    }
+}
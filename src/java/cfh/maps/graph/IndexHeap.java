@@ -0,0 +1,107 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the integers <code>0..capacity-1</code> with
+ * <code>double</code> keys and decrease-key support.
+ */
+class IndexHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] key;
+
+    private int size = 0;
+
+    IndexHeap(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("negative capacity: " + capacity);
+
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int index) {
+        return position[index] != -1;
+    }
+
+    double getKey(int index) {
+        return key[index];
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /** Inserts <code>index</code> or lowers its key; a higher key is ignored. */
+    void push(int index, double value) {
+        int i = position[index];
+        if (i == -1) {
+            i = size++;
+            heap[i] = index;
+            position[index] = i;
+        } else if (value >= key[index]) {
+            return;
+        }
+        key[index] = value;
+        up(i);
+    }
+
+    int pop() {
+        if (size == 0) throw new IllegalStateException("empty heap");
+
+        int result = heap[0];
+        position[result] = -1;
+        size -= 1;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            down(0);
+        }
+        return result;
+    }
+
+    private void up(int i) {
+        int index = heap[i];
+        double value = key[index];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (key[heap[parent]] <= value)
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = index;
+        position[index] = i;
+    }
+
+    private void down(int i) {
+        int index = heap[i];
+        double value = key[index];
+        while (true) {
+            int child = 2*i + 1;
+            if (child >= size)
+                break;
+            if (child+1 < size && key[heap[child+1]] < key[heap[child]]) {
+                child += 1;
+            }
+            if (value <= key[heap[child]])
+                break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = index;
+        position[index] = i;
+    }
+}
@@ -3,15 +3,12 @@ package cfh.maps.graph;
 import static cfh.maps.graph.GraphPanel.Mode.*;
 import static cfh.maps.graph.GraphPanel.*;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Graphics2D;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import cfh.maps.gui.Point;
 
@@ -20,13 +17,52 @@ public class ManualWalker implements Walker {
     private static final Color NODE_COLOR = Color.ORANGE;
     private static final Color TRAIL_COLOR = Color.BLUE;
     
-    private final LinkedList<Edge> trail = new LinkedList<Edge>();
-    private Node lastTrail = null;
+    private final Graph graph;
+    private Edge[] table;  // by edge index, shared with the trail
+    private Trail trail = null;  // null if not started
+    
+    // running totals, updated by step and undo
+    private int[] passes;  // by edge index
+    private double[] repeated = new double[17];  // repeated[k]: of the passes after the first one in the first k steps
+    private double totalLength;  // of all edges
+    private double openLength;  // of the edges not passed yet
     
     private final PropertyChangeSupport support = new PropertyChangeSupport(this);
     
-    Collection<Edge> getTrail() {
-        return Collections.unmodifiableCollection(trail);
+    ManualWalker(Graph graph) {
+        if (graph == null) throw new IllegalArgumentException("null graph");
+        
+        this.graph = graph;
+        reset();
+    }
+    
+    /** Drops the trail, needed after the edges of the graph are changed (compact). */
+    void reset() {
+        String old = getLength();
+        table = new Edge[graph.getEdgeCapacity()];
+        totalLength = 0;
+        for (Edge edge : graph.getEdges()) {
+            table[edge.getIndex()] = edge;
+            totalLength += edge.getLength();
+        }
+        openLength = totalLength;
+        passes = new int[table.length];
+        trail = null;
+        support.firePropertyChange(PROP_TRAIL, old, getLength());
+    }
+    
+    double getTrailLength() {
+        return (trail == null) ? 0 : trail.getCost();
+    }
+    
+    /** Length of the edges passed more than once, without their first pass. */
+    double getRepeatedLength() {
+        return (trail == null) ? 0 : repeated[trail.size()];
+    }
+    
+    /** Length of the edges not in the trail. */
+    double getOpenLength() {
+        return openLength;
     }
     
     @Override
@@ -41,14 +77,17 @@ public class ManualWalker implements Walker {
 
     @Override
     public void step(GraphPanel panel, Node start, Node node, Edge edge) {
-        if (lastTrail == null) {
-            lastTrail = start;
+        if (trail == null && start != null) {
+            trail = new Trail(start, table);
         }
-        if (lastTrail == null) {
-            lastTrail = node;
+        if (trail == null) {
+            if (node != null) {
+                trail = new Trail(node, table);
+            }
             panel.setStart(node);
             support.firePropertyChange(PROP_TRAIL, null, getLength());
         } else {
+            Node lastTrail = trail.getTo();
             Edge found = null;
             if (node != null) {
                 if (node != lastTrail) {
@@ -66,12 +105,7 @@ public class ManualWalker implements Walker {
             }
             if (found != null) {
                 String old = getLength();
-                trail.add(found);
-                if (found.getNode1() == lastTrail) {
-                    lastTrail = found.getNode2();
-                } else {
-                    lastTrail = found.getNode1();
-                }
+                addStep(found);
                 panel.repaint();
                 support.firePropertyChange(PROP_TRAIL, old, getLength());
             }
@@ -80,36 +114,51 @@ public class ManualWalker implements Walker {
     
     @Override
     public void back(GraphPanel panel, Node start, Node node, Edge edge) {
-        if (trail.isEmpty()) {
+        if (trail == null || trail.size() == 0) {
             panel.setMode(NONE);
         } else {
             String old = getLength();
-            Edge removed = trail.removeLast();
-            if (trail.isEmpty()) {
-                lastTrail = null;
-            } else {
-                if (lastTrail == removed.getNode2()) {
-                    lastTrail = removed.getNode1();
-                } else {
-                    lastTrail = removed.getNode2();
-                }
-            }
+            removeStep();
             panel.repaint();
             support.firePropertyChange(PROP_TRAIL, old, getLength());
         }
     }
     
-    private String getLength() {
-        double length = 0;
-        for (Edge edge : trail) {
-            length += edge.getLength();
+    /** Adds the edge starting at the last node of the trail. */
+    private void addStep(Edge edge) {
+        int index = edge.getIndex();
+        int size = trail.size();
+        if (size+1 == repeated.length) {
+            repeated = Arrays.copyOf(repeated, 2*repeated.length);
+        }
+        double length = edge.getLength();
+        trail.addStep(edge, length);
+        repeated[size+1] = repeated[size] + (passes[index] > 0 ? length : 0);
+        if (passes[index]++ == 0) {
+            openLength -= length;
+        }
+    }
+    
+    /** Removes the last step; the trail is dropped if it gets empty. */
+    private void removeStep() {
+        int index = trail.getEdgeIndex(trail.size()-1);
+        trail.removeLast();
+        if (--passes[index] == 0) {
+            openLength += table[index].getLength();
+        }
+        if (trail.size() == 0) {
+            trail = null;
+            openLength = totalLength;  // no rounding left over
         }
-        return String.format("%.1f", length);
+    }
+    
+    private String getLength() {
+        return String.format("%.1f", getTrailLength());
     }
 
     @Override
     public void paintNode(Graphics2D gg, Node node, int x, int y) {
-        if (node == lastTrail) {
+        if (trail != null && node == trail.getTo()) {
             gg.setColor(NODE_COLOR);
             GraphPanel.drawMarkedNode(gg, x, y);
         }
@@ -117,9 +166,9 @@ public class ManualWalker implements Walker {
     
     @Override
     public void paintEdge(Graphics2D gg, Edge edge, Point from, Point to) {
-        if (trail.contains(edge)) {
+        if (trail != null && trail.contains(edge)) {
             gg.setColor(TRAIL_COLOR);
-            gg.setStroke(new BasicStroke(3));
+            gg.setStroke(GraphPanel.TRAIL_STROKE);
         }
     }
 
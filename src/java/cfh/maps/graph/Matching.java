@@ -0,0 +1,657 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Minimum cost perfect matching on a complete graph with an even number of nodes.
+ * <p>
+ * Edmonds' blossom algorithm in the primal-dual form of J. van Rantwijk's
+ * maximum weight matching (O(n&sup3;)), run with maximum cardinality on the
+ * weights <code>max - cost</code>. Costs are rounded to {@link #RESOLUTION} so
+ * the dual variables stay integral.
+ */
+class Matching {
+
+    /** costs are compared with this resolution */
+    static final double RESOLUTION = 1e-3;
+
+    private final int nvertex;
+    private final int nedge;
+
+    private final int[] edgeI;
+    private final int[] edgeJ;
+    private final long[] weight;
+    private final int[][] neighbend;
+
+    private final int[] mate;
+    private final int[] label;
+    private final int[] labelend;
+    private final int[] inblossom;
+    private final int[] blossomparent;
+    private final int[][] blossomchilds;
+    private final int[] blossombase;
+    private final int[][] blossomendps;
+    private final int[] bestedge;
+    private final int[][] blossombestedges;
+    private final int[] unusedblossoms;
+    private int unusedCount;
+    private final long[] dualvar;
+    private final boolean[] allowedge;
+    private int[] queue;
+    private int queueSize;
+
+    /** reused buffers: leaves of a blossom, trace of scanBlossom */
+    private final int[] leaves;
+    private final int[] trace;
+
+    private final Monitor monitor;
+
+    private final int[] pairs;
+    private final double cost;
+
+    /**
+     * Calculates the matching.
+     * @param cost symmetric <code>n*n</code> matrix of the costs, <code>n</code> even
+     */
+    Matching(double[][] cost) {
+        this(cost, Monitor.NONE);
+    }
+
+    /**
+     * Calculates the matching, checking <code>monitor</code> for cancellation after each augmentation.
+     * @param cost symmetric <code>n*n</code> matrix of the costs, <code>n</code> even
+     */
+    Matching(double[][] cost, Monitor monitor) {
+        if (monitor == null) throw new IllegalArgumentException("null monitor");
+        this.monitor = monitor;
+        int n = cost.length;
+        if (n % 2 != 0) throw new IllegalArgumentException("odd number of nodes: " + n);
+
+        nvertex = n;
+        nedge = n * (n-1) / 2;
+        edgeI = new int[nedge];
+        edgeJ = new int[nedge];
+        weight = new long[nedge];
+        neighbend = new int[n][n > 0 ? n-1 : 0];
+
+        long[] scaled = new long[nedge];
+        long max = 0;
+        int[] fill = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i+1; j < n; j++) {
+                if (cost[i][j] < 0 || Double.isNaN(cost[i][j]) || Double.isInfinite(cost[i][j]))
+                    throw new IllegalArgumentException("invalid cost " + i + "-" + j + ": " + cost[i][j]);
+                edgeI[k] = i;
+                edgeJ[k] = j;
+                scaled[k] = Math.round(cost[i][j] / RESOLUTION);
+                if (scaled[k] > max) {
+                    max = scaled[k];
+                }
+                neighbend[i][fill[i]++] = 2*k + 1;
+                neighbend[j][fill[j]++] = 2*k;
+                k += 1;
+            }
+        }
+        for (k = 0; k < nedge; k++) {
+            weight[k] = max - scaled[k];
+        }
+        long maxweight = (nedge > 0) ? max - min(scaled) : 0;
+
+        mate = new int[n];
+        label = new int[2*n];
+        labelend = new int[2*n];
+        inblossom = new int[n];
+        blossomparent = new int[2*n];
+        blossomchilds = new int[2*n][];
+        blossombase = new int[2*n];
+        blossomendps = new int[2*n][];
+        bestedge = new int[2*n];
+        blossombestedges = new int[2*n][];
+        unusedblossoms = new int[n];
+        dualvar = new long[2*n];
+        allowedge = new boolean[nedge];
+        queue = new int[Math.max(n, 1)];
+        leaves = new int[n];
+        trace = new int[2*n];
+
+        Arrays.fill(mate, -1);
+        Arrays.fill(labelend, -1);
+        Arrays.fill(blossomparent, -1);
+        Arrays.fill(blossombase, -1);
+        Arrays.fill(bestedge, -1);
+        for (int v = 0; v < n; v++) {
+            inblossom[v] = v;
+            blossombase[v] = v;
+            unusedblossoms[v] = n + v;
+            dualvar[v] = maxweight;
+        }
+        unusedCount = n;
+
+        solve();
+
+        pairs = new int[n];
+        double total = 0;
+        for (int v = 0; v < n; v++) {
+            pairs[v] = endpoint(mate[v]);
+            if (v < pairs[v]) {
+                total += cost[v][pairs[v]];
+            }
+        }
+        this.cost = total;
+    }
+
+    /** Partner of each node. */
+    int[] getPairs() {
+        return pairs.clone();
+    }
+
+    /** Total cost of the matched pairs. */
+    double getCost() {
+        return cost;
+    }
+
+    private static long min(long[] values) {
+        long result = Long.MAX_VALUE;
+        for (long value : values) {
+            if (value < result) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    private int endpoint(int p) {
+        return (p & 1) == 0 ? edgeI[p >> 1] : edgeJ[p >> 1];
+    }
+
+    private long slack(int k) {
+        return dualvar[edgeI[k]] + dualvar[edgeJ[k]] - 2 * weight[k];
+    }
+
+    /** Stores the leaves of <code>b</code> in {@link #leaves}, returns their count. */
+    private int blossomLeaves(int b) {
+        return addLeaves(b, 0);
+    }
+
+    private int addLeaves(int b, int count) {
+        if (b < nvertex) {
+            leaves[count++] = b;
+        } else {
+            for (int t : blossomchilds[b]) {
+                count = addLeaves(t, count);
+            }
+        }
+        return count;
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value)
+                return i;
+        }
+        throw new IllegalStateException("missing " + value);
+    }
+
+    private void enqueue(int v) {
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, 2 * queueSize);
+        }
+        queue[queueSize++] = v;
+    }
+
+    private void assignLabel(int w, int t, int p) {
+        int b = inblossom[w];
+        label[w] = label[b] = t;
+        labelend[w] = labelend[b] = p;
+        bestedge[w] = bestedge[b] = -1;
+        if (t == 1) {
+            int count = blossomLeaves(b);
+            for (int i = 0; i < count; i++) {
+                enqueue(leaves[i]);
+            }
+        } else if (t == 2) {
+            int base = blossombase[b];
+            assignLabel(endpoint(mate[base]), 1, mate[base] ^ 1);
+        }
+    }
+
+    /** Traces back from v and w to find a new blossom (returns its base) or an augmenting path (-1). */
+    private int scanBlossom(int v, int w) {
+        int[] path = trace;
+        int count = 0;
+        int base = -1;
+        while (v != -1 || w != -1) {
+            int b = inblossom[v];
+            if ((label[b] & 4) != 0) {
+                base = blossombase[b];
+                break;
+            }
+            path[count++] = b;
+            label[b] = 5;
+            if (labelend[b] == -1) {
+                v = -1;
+            } else {
+                v = endpoint(labelend[b]);
+                b = inblossom[v];
+                v = endpoint(labelend[b]);
+            }
+            if (w != -1) {
+                int tmp = v;
+                v = w;
+                w = tmp;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            label[path[i]] = 1;
+        }
+        return base;
+    }
+
+    private void addBlossom(int base, int k) {
+        int v = edgeI[k];
+        int w = edgeJ[k];
+        int bb = inblossom[base];
+        int bv = inblossom[v];
+        int bw = inblossom[w];
+        int b = unusedblossoms[--unusedCount];
+        blossombase[b] = base;
+        blossomparent[b] = -1;
+        blossomparent[bb] = b;
+
+        int[] path = new int[2*nvertex+1];
+        int[] endps = new int[2*nvertex+1];
+        int count = 0;
+        while (bv != bb) {
+            blossomparent[bv] = b;
+            path[count] = bv;
+            endps[count] = labelend[bv];
+            count += 1;
+            v = endpoint(labelend[bv]);
+            bv = inblossom[v];
+        }
+        path[count] = bb;
+        count += 1;
+        reverse(path, count);
+        reverse(endps, count-1);
+        endps[count-1] = 2*k;
+        while (bw != bb) {
+            blossomparent[bw] = b;
+            path[count] = bw;
+            endps[count] = labelend[bw] ^ 1;
+            count += 1;
+            w = endpoint(labelend[bw]);
+            bw = inblossom[w];
+        }
+        blossomchilds[b] = Arrays.copyOf(path, count);
+        blossomendps[b] = Arrays.copyOf(endps, count);
+
+        label[b] = 1;
+        labelend[b] = labelend[bb];
+        dualvar[b] = 0;
+        int leafCount = blossomLeaves(b);
+        for (int i = 0; i < leafCount; i++) {
+            int leaf = leaves[i];
+            if (label[inblossom[leaf]] == 2) {
+                enqueue(leaf);
+            }
+            inblossom[leaf] = b;
+        }
+
+        int[] bestedgeto = new int[2*nvertex];
+        Arrays.fill(bestedgeto, -1);
+        for (int c : blossomchilds[b]) {
+            if (blossombestedges[c] == null) {
+                int childLeaves = blossomLeaves(c);
+                for (int i = 0; i < childLeaves; i++) {
+                    for (int end : neighbend[leaves[i]]) {
+                        updateBestEdge(bestedgeto, b, end >> 1);
+                    }
+                }
+            } else {
+                for (int e : blossombestedges[c]) {
+                    updateBestEdge(bestedgeto, b, e);
+                }
+            }
+            blossombestedges[c] = null;
+            bestedge[c] = -1;
+        }
+        int found = 0;
+        for (int e : bestedgeto) {
+            if (e != -1) {
+                bestedgeto[found++] = e;
+            }
+        }
+        blossombestedges[b] = Arrays.copyOf(bestedgeto, found);
+        bestedge[b] = -1;
+        for (int e : blossombestedges[b]) {
+            if (bestedge[b] == -1 || slack(e) < slack(bestedge[b])) {
+                bestedge[b] = e;
+            }
+        }
+    }
+
+    private void updateBestEdge(int[] bestedgeto, int b, int e) {
+        int j = edgeJ[e];
+        if (inblossom[j] == b) {
+            j = edgeI[e];
+        }
+        int bj = inblossom[j];
+        if (bj != b && label[bj] == 1 &&
+            (bestedgeto[bj] == -1 || slack(e) < slack(bestedgeto[bj]))) {
+            bestedgeto[bj] = e;
+        }
+    }
+
+    private static void reverse(int[] array, int count) {
+        for (int i = 0, j = count-1; i < j; i++, j--) {
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    private void expandBlossom(int b, boolean endstage) {
+        int[] childs = blossomchilds[b];
+        int[] endps = blossomendps[b];
+        for (int s : childs) {
+            blossomparent[s] = -1;
+            if (s < nvertex) {
+                inblossom[s] = s;
+            } else if (endstage && dualvar[s] == 0) {
+                expandBlossom(s, endstage);
+            } else {
+                int count = blossomLeaves(s);
+                for (int i = 0; i < count; i++) {
+                    inblossom[leaves[i]] = s;
+                }
+            }
+        }
+        if (!endstage && label[b] == 2) {
+            int entrychild = inblossom[endpoint(labelend[b] ^ 1)];
+            int j = indexOf(childs, entrychild);
+            int jstep;
+            int endptrick;
+            if ((j & 1) != 0) {
+                j -= childs.length;
+                jstep = 1;
+                endptrick = 0;
+            } else {
+                jstep = -1;
+                endptrick = 1;
+            }
+            int p = labelend[b];
+            while (j != 0) {
+                label[endpoint(p ^ 1)] = 0;
+                label[endpoint(endps[wrap(j-endptrick, endps.length)] ^ endptrick ^ 1)] = 0;
+                assignLabel(endpoint(p ^ 1), 2, p);
+                allowedge[endps[wrap(j-endptrick, endps.length)] >> 1] = true;
+                j += jstep;
+                p = endps[wrap(j-endptrick, endps.length)] ^ endptrick;
+                allowedge[p >> 1] = true;
+                j += jstep;
+            }
+            int bv = childs[wrap(j, childs.length)];
+            label[endpoint(p ^ 1)] = label[bv] = 2;
+            labelend[endpoint(p ^ 1)] = labelend[bv] = p;
+            bestedge[bv] = -1;
+            j += jstep;
+            while (childs[wrap(j, childs.length)] != entrychild) {
+                bv = childs[wrap(j, childs.length)];
+                if (label[bv] == 1) {
+                    j += jstep;
+                    continue;
+                }
+                int found = -1;
+                int count = blossomLeaves(bv);
+                for (int i = 0; i < count; i++) {
+                    if (label[leaves[i]] != 0) {
+                        found = leaves[i];
+                        break;
+                    }
+                }
+                if (found != -1) {
+                    label[found] = 0;
+                    label[endpoint(mate[blossombase[bv]])] = 0;
+                    assignLabel(found, 2, labelend[found]);
+                }
+                j += jstep;
+            }
+        }
+        label[b] = labelend[b] = -1;
+        blossomchilds[b] = blossomendps[b] = null;
+        blossombase[b] = -1;
+        blossombestedges[b] = null;
+        bestedge[b] = -1;
+        unusedblossoms[unusedCount++] = b;
+    }
+
+    private static int wrap(int index, int length) {
+        return (index < 0) ? index + length : index;
+    }
+
+    private void augmentBlossom(int b, int v) {
+        int t = v;
+        while (blossomparent[t] != b) {
+            t = blossomparent[t];
+        }
+        if (t >= nvertex) {
+            augmentBlossom(t, v);
+        }
+        int[] childs = blossomchilds[b];
+        int[] endps = blossomendps[b];
+        int i = indexOf(childs, t);
+        int j = i;
+        int jstep;
+        int endptrick;
+        if ((i & 1) != 0) {
+            j -= childs.length;
+            jstep = 1;
+            endptrick = 0;
+        } else {
+            jstep = -1;
+            endptrick = 1;
+        }
+        while (j != 0) {
+            j += jstep;
+            t = childs[wrap(j, childs.length)];
+            int p = endps[wrap(j-endptrick, endps.length)] ^ endptrick;
+            if (t >= nvertex) {
+                augmentBlossom(t, endpoint(p));
+            }
+            j += jstep;
+            t = childs[wrap(j, childs.length)];
+            if (t >= nvertex) {
+                augmentBlossom(t, endpoint(p ^ 1));
+            }
+            mate[endpoint(p)] = p ^ 1;
+            mate[endpoint(p ^ 1)] = p;
+        }
+        blossomchilds[b] = rotate(childs, i);
+        blossomendps[b] = rotate(endps, i);
+        blossombase[b] = blossombase[blossomchilds[b][0]];
+    }
+
+    private static int[] rotate(int[] array, int i) {
+        int[] result = new int[array.length];
+        System.arraycopy(array, i, result, 0, array.length - i);
+        System.arraycopy(array, 0, result, array.length - i, i);
+        return result;
+    }
+
+    private void augmentMatching(int k) {
+        for (int side = 0; side < 2; side++) {
+            int s = (side == 0) ? edgeI[k] : edgeJ[k];
+            int p = (side == 0) ? 2*k + 1 : 2*k;
+            while (true) {
+                int bs = inblossom[s];
+                if (bs >= nvertex) {
+                    augmentBlossom(bs, s);
+                }
+                mate[s] = p;
+                if (labelend[bs] == -1)
+                    break;
+                int t = endpoint(labelend[bs]);
+                int bt = inblossom[t];
+                s = endpoint(labelend[bt]);
+                int j = endpoint(labelend[bt] ^ 1);
+                if (bt >= nvertex) {
+                    augmentBlossom(bt, j);
+                }
+                mate[j] = labelend[bt];
+                p = labelend[bt] ^ 1;
+            }
+        }
+    }
+
+    private void solve() {
+        for (int stage = 0; stage < nvertex; stage++) {
+            if (monitor.isCanceled())
+                throw new CancellationException("matching canceled");
+            Arrays.fill(label, 0);
+            Arrays.fill(bestedge, -1);
+            Arrays.fill(blossombestedges, nvertex, 2*nvertex, null);
+            Arrays.fill(allowedge, false);
+            queueSize = 0;
+            for (int v = 0; v < nvertex; v++) {
+                if (mate[v] == -1 && label[inblossom[v]] == 0) {
+                    assignLabel(v, 1, -1);
+                }
+            }
+            boolean augmented = false;
+            while (true) {
+                while (queueSize > 0 && !augmented) {
+                    int v = queue[--queueSize];
+                    for (int p : neighbend[v]) {
+                        int k = p >> 1;
+                        int w = endpoint(p);
+                        if (inblossom[v] == inblossom[w])
+                            continue;
+                        long kslack = 0;
+                        if (!allowedge[k]) {
+                            kslack = slack(k);
+                            if (kslack <= 0) {
+                                allowedge[k] = true;
+                            }
+                        }
+                        if (allowedge[k]) {
+                            if (label[inblossom[w]] == 0) {
+                                assignLabel(w, 2, p ^ 1);
+                            } else if (label[inblossom[w]] == 1) {
+                                int base = scanBlossom(v, w);
+                                if (base >= 0) {
+                                    addBlossom(base, k);
+                                } else {
+                                    augmentMatching(k);
+                                    augmented = true;
+                                    break;
+                                }
+                            } else if (label[w] == 0) {
+                                label[w] = 2;
+                                labelend[w] = p ^ 1;
+                            }
+                        } else if (label[inblossom[w]] == 1) {
+                            int b = inblossom[v];
+                            if (bestedge[b] == -1 || kslack < slack(bestedge[b])) {
+                                bestedge[b] = k;
+                            }
+                        } else if (label[w] == 0) {
+                            if (bestedge[w] == -1 || kslack < slack(bestedge[w])) {
+                                bestedge[w] = k;
+                            }
+                        }
+                    }
+                }
+                if (augmented)
+                    break;
+
+                int deltatype = -1;
+                long delta = 0;
+                int deltaedge = -1;
+                int deltablossom = -1;
+                for (int v = 0; v < nvertex; v++) {
+                    if (label[inblossom[v]] == 0 && bestedge[v] != -1) {
+                        long d = slack(bestedge[v]);
+                        if (deltatype == -1 || d < delta) {
+                            delta = d;
+                            deltatype = 2;
+                            deltaedge = bestedge[v];
+                        }
+                    }
+                }
+                for (int b = 0; b < 2*nvertex; b++) {
+                    if (blossomparent[b] == -1 && label[b] == 1 && bestedge[b] != -1) {
+                        long d = slack(bestedge[b]) / 2;
+                        if (deltatype == -1 || d < delta) {
+                            delta = d;
+                            deltatype = 3;
+                            deltaedge = bestedge[b];
+                        }
+                    }
+                }
+                for (int b = nvertex; b < 2*nvertex; b++) {
+                    if (blossombase[b] >= 0 && blossomparent[b] == -1 && label[b] == 2 &&
+                        (deltatype == -1 || dualvar[b] < delta)) {
+                        delta = dualvar[b];
+                        deltatype = 4;
+                        deltablossom = b;
+                    }
+                }
+                if (deltatype == -1) {
+                    deltatype = 1;
+                    delta = Long.MAX_VALUE;
+                    for (int v = 0; v < nvertex; v++) {
+                        delta = Math.min(delta, dualvar[v]);
+                    }
+                    delta = Math.max(0, delta);
+                }
+
+                for (int v = 0; v < nvertex; v++) {
+                    if (label[inblossom[v]] == 1) {
+                        dualvar[v] -= delta;
+                    } else if (label[inblossom[v]] == 2) {
+                        dualvar[v] += delta;
+                    }
+                }
+                for (int b = nvertex; b < 2*nvertex; b++) {
+                    if (blossombase[b] >= 0 && blossomparent[b] == -1) {
+                        if (label[b] == 1) {
+                            dualvar[b] += delta;
+                        } else if (label[b] == 2) {
+                            dualvar[b] -= delta;
+                        }
+                    }
+                }
+
+                if (deltatype == 1) {
+                    break;
+                } else if (deltatype == 2) {
+                    allowedge[deltaedge] = true;
+                    int i = edgeI[deltaedge];
+                    if (label[inblossom[i]] == 0) {
+                        i = edgeJ[deltaedge];
+                    }
+                    enqueue(i);
+                } else if (deltatype == 3) {
+                    allowedge[deltaedge] = true;
+                    enqueue(edgeI[deltaedge]);
+                } else if (deltatype == 4) {
+                    expandBlossom(deltablossom, false);
+                }
+            }
+            if (!augmented)
+                break;
+
+            for (int b = nvertex; b < 2*nvertex; b++) {
+                if (blossomparent[b] == -1 && blossombase[b] >= 0 && label[b] == 1 && dualvar[b] == 0) {
+                    expandBlossom(b, true);
+                }
+            }
+        }
+        for (int v = 0; v < nvertex; v++) {
+            if (mate[v] == -1)
+                throw new IllegalStateException("no perfect matching for node " + v);
+        }
+    }
+}
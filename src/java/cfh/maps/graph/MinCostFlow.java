@@ -0,0 +1,254 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Balancing of the unbalanced vertices of a {@link CPP} graph as minimum cost flow.
+ * <p>
+ * Each vertex with negative delta must send <code>-delta</code> extra paths, each
+ * vertex with positive delta receives <code>delta</code> paths; a path from
+ * <code>i</code> to <code>j</code> costs <code>c[i][j]</code>, the least cost path
+ * already calculated by the CPP. With {@link #setVirtualArc(int, int, float)} a path
+ * may also use one extra arc, only the costs between the unbalanced vertices are
+ * calculated for each solve. The flow is found by successive shortest paths
+ * from a super source to a super sink, using Dijkstra on reduced costs (vertex
+ * potentials), so negative path costs are allowed as long as there is no
+ * negative cycle.
+ * <p>
+ * The buffers are kept between calls, an instance is not thread safe.
+ */
+class MinCostFlow {
+
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private final float[][] c;
+    private final boolean[][] defined;
+
+    private int virtualFrom = -1;
+    private int virtualTo = -1;
+    private float virtualCost = 0;
+
+    private int capacity = 0;
+    private double[] dist;
+    private double[] potential;
+    private int[] prev;
+    private boolean[] done;
+    private int[] remaining;
+    private int[] flow = new int[0];
+    private float[] pairCost = new float[0];  // [u*np + v]: from neg[u] to pos[v]
+
+    /** All paths in <code>cost</code> defined. */
+    MinCostFlow(float[][] cost) {
+        this(cost, null);
+    }
+
+    /** @param defined whether a path is defined, <code>null</code> if all are */
+    MinCostFlow(float[][] cost, boolean[][] defined) {
+        if (cost == null) throw new IllegalArgumentException("null cost");
+        this.c = cost;
+        this.defined = defined;
+    }
+
+    /**
+     * Extra arc for the following solves: a path from <code>i</code> to <code>j</code> may go
+     * from <code>i</code> to <code>from</code>, over the arc to <code>to</code>, and on to <code>j</code>.
+     * @param from start of the arc, <code>-1</code> for none
+     */
+    void setVirtualArc(int from, int to, float cost) {
+        virtualFrom = from;
+        virtualTo = to;
+        virtualCost = cost;
+    }
+
+    /**
+     * Calculates the optimal number of extra paths between the unbalanced vertices.
+     * @param neg vertices with negative delta
+     * @param pos vertices with positive delta
+     * @param delta delta of each vertex (out minus in)
+     * @param f if not null, receives the number of paths <code>f[neg[u]][pos[v]]</code>
+     * @return the cost of the extra paths
+     * @throws UnbalancedException if there are not enough paths between the vertices
+     */
+    float solve(int[] neg, int[] pos, int[] delta, int[][] f) {
+        int nn = neg.length;
+        int np = pos.length;
+        int source = nn + np;
+        int sink = source + 1;
+        allocate(sink + 1, nn * np);
+        for (int u = 0; u < nn; u++) {
+            for (int v = 0; v < np; v++) {
+                pairCost[u*np + v] = cost(neg[u], pos[v]);
+            }
+        }
+
+        for (int u = 0; u < nn; u++) {
+            remaining[u] = -delta[neg[u]];
+        }
+        for (int v = 0; v < np; v++) {
+            remaining[nn+v] = delta[pos[v]];
+        }
+        Arrays.fill(flow, 0, nn*np, 0);
+
+        // initial potentials: shortest distances in the (acyclic) starting network
+        Arrays.fill(potential, 0, sink+1, 0);
+        double minPos = INF;
+        for (int v = 0; v < np; v++) {
+            double min = INF;
+            for (int u = 0; u < nn; u++) {
+                min = Math.min(min, pairCost[u*np + v]);
+            }
+            potential[nn+v] = min;
+            minPos = Math.min(minPos, min);
+        }
+        potential[sink] = (np > 0) ? minPos : 0;
+
+        int open = 0;
+        for (int u = 0; u < nn; u++) {
+            open += remaining[u];
+        }
+        while (open > 0) {
+            shortestPaths(neg, pos, source, sink);
+            if (dist[sink] == INF)
+                throw new UnbalancedException("Graph can not be balanced");
+            for (int x = 0; x <= sink; x++) {
+                potential[x] += Math.min(dist[x], dist[sink]);
+            }
+
+            // path: sink <- pos <- neg (<- pos <- neg)* <- source
+            int amount = Integer.MAX_VALUE;
+            int v = prev[sink];
+            amount = Math.min(amount, remaining[v]);
+            while (true) {
+                int u = prev[v];
+                if (prev[u] == source) {
+                    amount = Math.min(amount, remaining[u]);
+                    break;
+                }
+                int w = prev[u];
+                amount = Math.min(amount, flow[u*np + (w-nn)]);
+                v = w;
+            }
+
+            v = prev[sink];
+            remaining[v] -= amount;
+            while (true) {
+                int u = prev[v];
+                flow[u*np + (v-nn)] += amount;
+                if (prev[u] == source) {
+                    remaining[u] -= amount;
+                    break;
+                }
+                int w = prev[u];
+                flow[u*np + (w-nn)] -= amount;
+                v = w;
+            }
+            open -= amount;
+        }
+
+        float phi = 0;
+        for (int u = 0; u < nn; u++) {
+            for (int v = 0; v < np; v++) {
+                int k = flow[u*np + v];
+                if (f != null) {
+                    f[neg[u]][pos[v]] = k;
+                }
+                phi += pairCost[u*np + v] * k;
+            }
+        }
+        return phi;
+    }
+
+    private void allocate(int nodes, int pairs) {
+        if (nodes > capacity) {
+            capacity = nodes;
+            dist = new double[nodes];
+            potential = new double[nodes];
+            prev = new int[nodes];
+            done = new boolean[nodes];
+            remaining = new int[nodes];
+        }
+        if (pairs > flow.length) {
+            flow = new int[pairs];
+            pairCost = new float[pairs];
+        }
+    }
+
+    /** Least cost from i to j, over the virtual arc if cheaper; infinite if not defined. */
+    private float cost(int i, int j) {
+        float result = isDefined(i, j) ? c[i][j] : Float.POSITIVE_INFINITY;
+        if (virtualFrom != -1) {
+            // no leg before or after the arc if it starts at i or ends at j
+            float in = (i == virtualFrom) ? 0 : isDefined(i, virtualFrom) ? c[i][virtualFrom] : Float.POSITIVE_INFINITY;
+            float out = (virtualTo == j) ? 0 : isDefined(virtualTo, j) ? c[virtualTo][j] : Float.POSITIVE_INFINITY;
+            result = Math.min(result, in + virtualCost + out);
+        }
+        return result;
+    }
+
+    private boolean isDefined(int i, int j) {
+        return defined == null || defined[i][j];
+    }
+
+    /**
+     * Dense Dijkstra on reduced costs over the residual network; stops when the sink is reached.
+     * Arcs back into the source or out of the sink are not needed: nodes only reachable that way
+     * are not nearer than the sink and their potentials are capped.
+     */
+    private void shortestPaths(int[] neg, int[] pos, int source, int sink) {
+        int nn = neg.length;
+        int np = pos.length;
+        Arrays.fill(dist, 0, sink+1, INF);
+        Arrays.fill(prev, 0, sink+1, -1);
+        Arrays.fill(done, 0, sink+1, false);
+        dist[source] = 0;
+        while (true) {
+            int x = -1;
+            for (int y = 0; y <= sink; y++) {
+                if (!done[y] && dist[y] != INF && (x == -1 || dist[y] < dist[x])) {
+                    x = y;
+                }
+            }
+            if (x == -1 || x == sink)
+                return;
+            done[x] = true;
+            double dx = dist[x];
+            if (x == source) {
+                for (int u = 0; u < nn; u++) {
+                    if (remaining[u] > 0) {
+                        relax(x, u, dx + potential[source] - potential[u]);
+                    }
+                }
+            } else if (x < nn) {
+                for (int v = 0; v < np; v++) {
+                    relax(x, nn+v, dx + pairCost[x*np + v] + potential[x] - potential[nn+v]);
+                }
+            } else {
+                int v = x - nn;
+                for (int u = 0; u < nn; u++) {
+                    if (flow[u*np + v] > 0) {
+                        relax(x, u, dx - pairCost[u*np + v] + potential[x] - potential[u]);
+                    }
+                }
+                if (remaining[x] > 0) {
+                    relax(x, sink, dx + potential[x] - potential[sink]);
+                }
+            }
+        }
+    }
+
+    private void relax(int from, int to, double d) {
+        if (!done[to] && d < dist[to]) {
+            dist[to] = d;
+            prev[to] = from;
+        }
+    }
+
+    /** The vertices can not be balanced, there are no paths between some of them. */
+    static class UnbalancedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        UnbalancedException(String message) {
+            super(message);
+        }
+    }
+}
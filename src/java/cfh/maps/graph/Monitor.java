@@ -0,0 +1,29 @@
+package cfh.maps.graph;
+
+/**
+ * Progress and cancellation of a long calculation.
+ * <p>
+ * The calculation reports the start of each phase and checks {@link #isCanceled()}
+ * regularly; if canceled it stops with a {@link java.util.concurrent.CancellationException}.
+ * The partial results of a canceled calculation are discarded, the next request
+ * restarts it from the beginning.
+ */
+interface Monitor {
+
+    /** Monitor that ignores the phases and is never canceled. */
+    Monitor NONE = new Monitor() {
+        @Override
+        public void phase(String name) {
+        }
+        
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+    };
+
+    /** Called at the start of each phase, from the calculating thread. */
+    void phase(String name);
+
+    boolean isCanceled();
+}
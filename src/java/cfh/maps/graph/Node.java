@@ -8,18 +8,26 @@ import cfh.maps.gui.Point;
 
 class Node {
 
+    private final int index;
     private final String id;
     private final Point point;
     
     private final List<Edge> edges = new ArrayList<Edge>();
     
-    Node(String id, Point point) {
+    Node(int index, String id, Point point) {
+        if (index < 0) throw new IllegalArgumentException("negative index: " + index);
         if (id == null) throw new IllegalArgumentException("null id");
         if (point == null) throw new IllegalArgumentException("null point");
+        this.index = index;
         this.id = id;
         this.point = point;
     }
     
+    /** Position in the node table of the {@link Graph}, stable while the node exists. */
+    int getIndex() {
+        return index;
+    }
+    
     String getId() {
         return id;
     }
@@ -0,0 +1,233 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+
+import cfh.maps.gui.Line;
+import cfh.maps.gui.Point;
+
+/**
+ * Point to point routes (A*) on a snapshot of a {@link Graph}, no all pairs calculation.
+ * <p>
+ * The estimate is the straight distance to the target, scaled like {@link Line#getLength()};
+ * no edge can be shorter than that. With {@link #setLandmarks(int)} the distances from
+ * some landmark nodes are calculated once and give a better estimate by the triangle
+ * inequality (ALT), so fewer nodes are visited per route.
+ */
+class Router {
+
+    /** Graphs with at least this many nodes get landmarks in {@link #create(Graph)}. */
+    private static final int LANDMARK_NODES = 2000;
+    private static final int LANDMARKS = 8;
+    
+    private final int N;
+    private final Node[] nodes;
+    private final int[] position;  // node index -> position in nodes, -1 if not used
+    private final Edge[] edges;
+    private final Edge[] edgeTable;  // by edge index, for the trails
+    private final Adjacency adjacency;
+    private final double[] x;
+    private final double[] y;
+
+    private double[][] landmarks = new double[0][];
+
+    private final IndexHeap heap;
+    private final double[] dist;
+    private final int[] via;
+    private final int[] reached;  // number of the query that set dist and via
+    private int query = 0;
+    private int visited = 0;
+
+    /** Router for the graph, with landmarks if it is big; see {@link Graph#getRouter()} for a shared one. */
+    static Router create(Graph graph) {
+        Router result = new Router(graph);
+        if (result.N >= LANDMARK_NODES) {
+            result.setLandmarks(LANDMARKS);
+        }
+        return result;
+    }
+
+    Router(Graph graph) {
+        if (graph == null) throw new IllegalArgumentException("null graph");
+
+        nodes = graph.getNodes().toArray(new Node[0]);
+        N = nodes.length;
+        position = new int[graph.getNodeCapacity()];
+        Arrays.fill(position, -1);
+        x = new double[N];
+        y = new double[N];
+        for (int i = 0; i < N; i++) {
+            position[nodes[i].getIndex()] = i;
+            Point point = nodes[i].getPoint();
+            x[i] = point.getX();
+            y[i] = point.getY();
+        }
+
+        edges = graph.getEdges().toArray(new Edge[0]);
+        edgeTable = new Edge[graph.getEdgeCapacity()];
+        for (Edge edge : edges) {
+            edgeTable[edge.getIndex()] = edge;
+        }
+        int[] from = new int[edges.length];
+        int[] to = new int[edges.length];
+        double[] cost = new double[edges.length];
+        for (int a = 0; a < edges.length; a++) {
+            from[a] = position[edges[a].getNode1().getIndex()];
+            to[a] = position[edges[a].getNode2().getIndex()];
+            cost[a] = edges[a].getLength();
+        }
+        adjacency = new Adjacency(N, edges.length, from, to, cost, false);
+
+        heap = new IndexHeap(N);
+        dist = new double[N];
+        via = new int[N];
+        reached = new int[N];
+    }
+
+    /**
+     * Calculates the distances from <code>count</code> landmarks, each as far as possible
+     * from the previous ones; <code>0</code> to only use the straight distance.
+     */
+    synchronized void setLandmarks(int count) {
+        if (count < 0) throw new IllegalArgumentException("negative count: " + count);
+
+        double[][] result = new double[Math.min(count, N)][];
+        double[] nearest = new double[N];  // distance to the nearest landmark
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        int next = 0;
+        for (int l = 0; l < result.length; l++) {
+            result[l] = distances(next);
+            int far = -1;
+            for (int i = 0; i < N; i++) {
+                double d = result[l][i];
+                if (d < nearest[i]) {
+                    nearest[i] = d;
+                }
+                if (nearest[i] != Double.POSITIVE_INFINITY && (far == -1 || nearest[i] > nearest[far])) {
+                    far = i;
+                }
+            }
+            if (far == -1 || nearest[far] == 0) {
+                result = Arrays.copyOf(result, l+1);
+                break;
+            }
+            next = far;
+        }
+        landmarks = result;
+    }
+
+    synchronized int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    /** Number of nodes settled by the last route. */
+    synchronized int getVisited() {
+        return visited;
+    }
+
+    /** Least cost route, <code>null</code> if <code>to</code> can not be reached. */
+    synchronized Trail getTrail(Node from, Node to) {
+        if (from == null) throw new IllegalArgumentException("null from");
+        if (to == null) throw new IllegalArgumentException("null to");
+
+        int s = indexOf(from);
+        int t = indexOf(to);
+
+        double[] toLandmark = new double[landmarks.length];
+        for (int l = 0; l < landmarks.length; l++) {
+            toLandmark[l] = landmarks[l][t];
+        }
+
+        query += 1;
+        visited = 0;
+        heap.clear();
+        reached[s] = query;
+        dist[s] = 0;
+        via[s] = -1;
+        heap.push(s, estimate(s, t, toLandmark));
+        while (!heap.isEmpty()) {
+            int u = heap.pop();
+            visited += 1;
+            if (u == t)
+                break;
+            double du = dist[u];
+            for (int k = adjacency.begin(u); k < adjacency.end(u); k++) {
+                int v = adjacency.getTarget(k);
+                double c = du + adjacency.getCost(k);
+                if (reached[v] != query || c < dist[v]) {
+                    double h = estimate(v, t, toLandmark);
+                    if (h == Double.POSITIVE_INFINITY)
+                        continue;
+                    reached[v] = query;
+                    dist[v] = c;
+                    via[v] = k;
+                    heap.push(v, c + h);
+                }
+            }
+        }
+        if (reached[t] != query)
+            return null;
+
+        int count = 0;
+        for (int v = t; v != s; v = adjacency.getSource(via[v])) {
+            count += 1;
+        }
+        int[] path = new int[count];  // slots
+        for (int v = t; v != s; v = adjacency.getSource(via[v])) {
+            path[--count] = via[v];
+        }
+        Trail trail = new Trail(from, edgeTable);
+        for (int k : path) {
+            trail.addStep(edges[adjacency.getArc(k)], adjacency.getCost(k));
+        }
+        return trail;
+    }
+
+    /** Lower bound of the cost from i to t, infinite if t can not be reached. */
+    private double estimate(int i, int t, double[] toLandmark) {
+        double dx = x[i] - x[t];
+        double dy = y[i] - y[t];
+        double h = Math.sqrt(dx*dx + dy*dy) * Line.SCALE;
+        for (int l = 0; l < toLandmark.length; l++) {
+            double di = landmarks[l][i];
+            double dt = toLandmark[l];
+            if (di == Double.POSITIVE_INFINITY || dt == Double.POSITIVE_INFINITY) {
+                if (di != dt)
+                    return Double.POSITIVE_INFINITY;  // different components
+            } else if (Math.abs(dt - di) > h) {
+                h = Math.abs(dt - di);
+            }
+        }
+        return h;
+    }
+
+    /** Dijkstra from <code>source</code> to all nodes. */
+    private double[] distances(int source) {
+        double[] d = new double[N];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        d[source] = 0;
+        heap.clear();
+        heap.push(source, 0);
+        while (!heap.isEmpty()) {
+            int u = heap.pop();
+            for (int k = adjacency.begin(u); k < adjacency.end(u); k++) {
+                int v = adjacency.getTarget(k);
+                double c = d[u] + adjacency.getCost(k);
+                if (c < d[v]) {
+                    d[v] = c;
+                    heap.push(v, c);
+                }
+            }
+        }
+        return d;
+    }
+
+    private int indexOf(Node node) {
+        int index = node.getIndex();
+        if (index < position.length) {
+            int i = position[index];
+            if (i != -1 && nodes[i] == node)
+                return i;
+        }
+        throw new IllegalArgumentException("unknown node " + node);
+    }
+}
@@ -8,16 +8,28 @@ import java.awt.Cursor;
 import java.awt.Graphics2D;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import cfh.maps.gui.Point;
 
 public class SolveWalker implements Walker {
 
     private static final Color UNBALANCED_COLOR = Color.RED;
+    private static final Color TOUR_COLOR = Color.BLUE;
+    private static final Color REPEATED_COLOR = Color.MAGENTA;
     
     private Solver solver = null;
-    private Collection<Node> unbalanced = null;
+    private BitSet unbalanced = null;  // by node index
+    private Trail tour = null;
+    private int[] passes = null;  // by edge index
+    private TourWorker worker = null;
     
     private final PropertyChangeSupport support = new PropertyChangeSupport(this);
     
@@ -33,24 +45,58 @@ public class SolveWalker implements Walker {
 
     @Override
     public void step(GraphPanel panel, Node start, Node node, Edge edge) {
-        if (solver == null) {
-            solver = createSolver(panel.getGraph());
+        if (worker != null) {
+            support.firePropertyChange(PROP_MSG, null, "busy, right-click to cancel");
+            return;
+        }
+        Solver actual = panel.getGraph().getSolver();
+        if (actual != solver) {  // new or changed graph
+            solver = actual;
+            unbalanced = null;
+            tour = null;
         }
         if (unbalanced == null) {
-            unbalanced = solver.getUnbalanced();
+            unbalanced = solver.getUnbalancedSet();
             panel.repaint();
             support.firePropertyChange(PROP_MSG, null, "unbalanced nodes");
-            support.firePropertyChange(PROP_TRAIL, null, Integer.toString(unbalanced.size()));
+            support.firePropertyChange(PROP_TRAIL, null, Integer.toString(unbalanced.cardinality()));
         } else {
-            solver.doNormalize();
-//            panel.setMode(NONE);
+            if (start == null) {
+                start = (node != null) ? node : panel.getGraph().getNodes().iterator().next();
+                panel.setStart(start);
+            }
+            worker = new TourWorker(panel, solver, start);
+            worker.execute();
         }
     }
     
+    private void setTour(GraphPanel panel, Trail trail, double augmentation) {
+        int capacity = panel.getGraph().getEdgeCapacity();
+        if (passes == null || passes.length < capacity) {
+            passes = new int[capacity];
+        }
+        Arrays.fill(passes, 0);
+        for (int step = 0; step < trail.size(); step++) {
+            passes[trail.getEdgeIndex(step)] += 1;
+        }
+        tour = trail;
+        panel.repaint();
+        support.firePropertyChange(PROP_MSG, null, 
+            String.format("tour: %d edges, +%.1f", tour.size(), augmentation));
+        support.firePropertyChange(PROP_TRAIL, null, String.format("%.1f", tour.getCost()));
+    }
+    
     @Override
     public void back(GraphPanel panel, Node start, Node node, Edge edge) {
+        if (worker != null) {
+            worker.cancel(false);  // done() reports
+            return;
+        }
         support.firePropertyChange(PROP_MSG, null, "");
-        if (unbalanced != null) {
+        if (tour != null) {
+            tour = null;
+            panel.repaint();
+        } else if (unbalanced != null) {
             unbalanced = null;
             panel.repaint();
         } else {
@@ -58,17 +104,9 @@ public class SolveWalker implements Walker {
         }
     }
     
-    private static Solver createSolver(Graph graph) {
-        Solver result = new Solver(graph.getNodes().toArray(new Node[0]));
-        for (Edge edge : graph.getEdges()) {
-            result.addEdge(edge, edge.getNode1(), edge.getNode2(), edge.getLength());
-        }
-        return result;
-    }
-
     @Override
     public void paintNode(Graphics2D gg, Node node, int x, int y) {
-        if (unbalanced != null && unbalanced.contains(node)) {
+        if (unbalanced != null && unbalanced.get(node.getIndex())) {
             gg.setColor(UNBALANCED_COLOR);
             GraphPanel.drawMarkedNode(gg, x, y);
         }
@@ -76,6 +114,98 @@ public class SolveWalker implements Walker {
     
     @Override
     public void paintEdge(Graphics2D gg, Edge edge, Point from, Point to) {
+        if (tour != null) {
+            int count = passes[edge.getIndex()];
+            if (count > 0) {
+                gg.setColor(count > 1 ? REPEATED_COLOR : TOUR_COLOR);
+                gg.setStroke(count > 1 ? GraphPanel.REPEATED_STROKE : GraphPanel.TRAIL_STROKE);
+            }
+        }
+    }
+
+    /** 
+     * Calculates the tour in background; the phases are shown as message, 
+     * the result is set in the event dispatch thread.
+     * The walker stays busy until the calculation has really ended, also if canceled
+     * (<code>done()</code> is called as soon as canceled).
+     */
+    private class TourWorker extends SwingWorker<Trail, String> implements Monitor {
+        
+        private final GraphPanel panel;
+        private final Solver tourSolver;
+        private final Node start;
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private double augmentation = 0;
+        
+        TourWorker(GraphPanel panel, Solver solver, Node start) {
+            this.panel = panel;
+            this.tourSolver = solver;
+            this.start = start;
+        }
+        
+        @Override
+        protected Trail doInBackground() throws Exception {
+            if (!started.compareAndSet(false, true))
+                return null;  // canceled before started, released by done()
+            try {
+                Trail result = tourSolver.getTour(start, this);
+                augmentation = tourSolver.getAugmentation();
+                return result;
+            } finally {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        release();
+                    }
+                });
+            }
+        }
+        
+        /** Called in the event dispatch thread when the calculation has ended. */
+        private void release() {
+            if (worker == this) {
+                worker = null;
+            }
+        }
+        
+        @Override
+        public void phase(String name) {
+            publish(name);
+        }
+        
+        @Override
+        public boolean isCanceled() {
+            return isCancelled();
+        }
+        
+        @Override
+        protected void process(List<String> phases) {
+            if (!isCancelled()) {
+                support.firePropertyChange(PROP_MSG, null, phases.get(phases.size()-1) + "...");
+            }
+        }
+        
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                if (started.compareAndSet(false, true)) {
+                    release();  // never started, else released at its end
+                }
+                support.firePropertyChange(PROP_MSG, null, "canceled");
+                return;
+            }
+            try {
+                Trail result = get();
+                if (tourSolver == solver) {  // else graph changed meanwhile
+                    setTour(panel, result, augmentation);
+                }
+            } catch (InterruptedException ex) {
+                support.firePropertyChange(PROP_MSG, null, "interrupted");
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+                support.firePropertyChange(PROP_MSG, null, ex.getCause().getMessage());
+            }
+        }
     }
 
     public void addChangeListener(PropertyChangeListener listener) {
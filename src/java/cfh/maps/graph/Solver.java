@@ -2,22 +2,52 @@ package cfh.maps.graph;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
 
 class Solver {
 
+    /** Storage and algorithm used for the least cost routes. */
+    enum Mode {
+        /** all pairs (Floyd-Warshall) on N*N matrices */
+        DENSE,
+        /** all pairs on flattened cost and next arrays only, routes rebuilt from next */
+        COMPACT,
+        /** all pairs on flattened arrays like COMPACT, blocked Floyd-Warshall using all cores */
+        PARALLEL,
+        /** Dijkstra on compressed adjacency, only from the needed nodes */
+        SPARSE;
+    }
+
     private final boolean directed = false;
     
+    private final Mode mode;
     private final int N;
 
     private final Node[] nodes;
+    private final int[] position;  // node index -> position in nodes, -1 if not used
     private final int[] in;
     private final int[] out;
     
+    private int arcCount = 0;
+    private int[] arcFrom = new int[16];
+    private int[] arcTo = new int[16];
+    private double[] arcCost = new double[16];
+    private Edge[] arcEdge = new Edge[16];
+    
+    // loops change neither the balance nor any route, they are only walked by the tour
+    private int loopCount = 0;
+    private int[] loopNode = new int[4];
+    private double[] loopCost = new double[4];
+    private Edge[] loopEdge = new Edge[4];
+    
+    private Edge[] edgeTable = null;  // by edge index, for the trails
+    
     private final List<Object>[][] edges;
     private final double[][] cost;
     private final boolean[][] defined;
@@ -25,39 +55,105 @@ class Solver {
     private final Object[][] path;
     private final int[][] connections;
     
+    // COMPACT and PARALLEL: cost[i*N+j], POSITIVE_INFINITY if no route; parallel edges only in adjacency
+    private final double[] flatCost;
+    private final int[] flatNext;
+    
+    private Adjacency adjacency = null;
+    private SparsePaths sparse = null;
+    
     private int[] unbalanced = null;
-    private int[][] normalized = null;
+    private int[] pairing = null;
+    private int[][] pairRoutes = null;  // arcs from each unbalanced node to its partner, if before it
+    private double augmentation = 0;
     
     private double total = 0;
     
     private boolean lowCostCalculated = false;
     
+    /** Solver with all nodes and edges of the graph, see {@link Graph#getSolver()} for a shared one. */
+    static Solver create(Graph graph) {
+        return create(graph, Mode.SPARSE);
+    }
+    
+    /** Like {@link #create(Graph)}, using the given mode. */
+    static Solver create(Graph graph, Mode mode) {
+        Solver result = new Solver(mode, graph.getNodes().toArray(new Node[0]));
+        for (Edge edge : graph.getEdges()) {
+            result.addEdge(edge, edge.getNode1(), edge.getNode2(), edge.getLength());
+        }
+        return result;
+    }
+    
     Solver(Node... nodes) {
-        if (nodes.length < 2) 
-            throw new IllegalArgumentException("at least 2 nodes needed: " + nodes.length);
+        this(Mode.DENSE, nodes);
+    }
+    
+    Solver(Mode mode, Node... nodes) {
+        if (mode == null) throw new IllegalArgumentException("null mode");
+        if (nodes.length < 1) 
+            throw new IllegalArgumentException("no nodes");
         
+        this.mode = mode;
         N = nodes.length;
         this.nodes = nodes;
+        
+        int max = -1;
+        for (Node node : nodes) {
+            max = Math.max(max, node.getIndex());
+        }
+        position = new int[max+1];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < N; i++) {
+            if (position[nodes[i].getIndex()] != -1)
+                throw new IllegalArgumentException("duplicated node: " + nodes[i]);
+            position[nodes[i].getIndex()] = i;
+        }
 
         in = new int[N];
         out = new int[N];
         
-        edges = createEdges();
-        cost = new double[N][N];
-        defined = new boolean[N][N];
-        next = new int[N][N];
-        path = new Object[N][N];
-        connections = new int[N][N];
+        if (mode == Mode.DENSE) {
+            edges = createEdges();
+            cost = new double[N][N];
+            defined = new boolean[N][N];
+            next = new int[N][N];
+            path = new Object[N][N];
+            connections = new int[N][N];
+        } else {
+            edges = null;
+            cost = null;
+            defined = null;
+            next = null;
+            path = null;
+            connections = null;
+        }
+        if (mode == Mode.COMPACT || mode == Mode.PARALLEL) {
+            if (N > 46340) 
+                throw new IllegalArgumentException("too many nodes for " + mode + ": " + N);
+            flatCost = new double[N*N];
+            flatNext = new int[N*N];
+            Arrays.fill(flatCost, Double.POSITIVE_INFINITY);
+        } else {
+            flatCost = null;
+            flatNext = null;
+        }
     }
 
-    void addEdge(Object edge, Node from, Node to, double edgeCost) {
+    synchronized void addEdge(Edge edge, Node from, Node to, double edgeCost) {
+        if (edge == null) throw new IllegalArgumentException("null edge");
         if (from == null) throw new IllegalArgumentException("null from");
         if (to == null) throw new IllegalArgumentException("null to");
         if (edgeCost < 0) throw new IllegalArgumentException("negative cost: " + edgeCost);
         
         int i = indexOf(from);
         int j = indexOf(to);
-        if (i == j) throw new IllegalArgumentException("loop not allowed: " + from + " to " + to);
+        if (i == j) {
+            addLoop(edge, i, edgeCost);
+            total += edgeCost;
+            edgeTable = null;
+            return;
+        }
         
         out[i] += 1;
         in[j] += 1;
@@ -65,6 +161,28 @@ class Solver {
             out[j] += 1;
             in[i] += 1;
         }
+        addArc(edge, i, j, edgeCost);
+        total += edgeCost;
+        
+        lowCostCalculated = false;
+        unbalanced = null;
+        pairing = null;
+        pairRoutes = null;
+        edgeTable = null;
+        
+        if (mode == Mode.SPARSE)
+            return;
+        if (mode != Mode.DENSE) {
+            if (edgeCost < flatCost[i*N+j]) {
+                flatCost[i*N+j] = edgeCost;
+                flatNext[i*N+j] = j;
+                if (!directed) {
+                    flatCost[j*N+i] = edgeCost;
+                    flatNext[j*N+i] = i;
+                }
+            }
+            return;
+        }
         if (!defined[i][j]) {
             edges[i][j] = new ArrayList<Object>();
             if (!directed && i != j) {
@@ -88,43 +206,210 @@ class Solver {
         if (!directed && i != j) {
             connections[j][i] += 1;
         }
-        total += edgeCost;
-        
-        lowCostCalculated = false;
-        unbalanced = null;
     }
     
-    double getCost(Node from, Node to) {
+    private void addLoop(Edge edge, int i, double edgeCost) {
+        if (loopCount == loopNode.length) {
+            int length = 2 * loopCount;
+            loopNode = Arrays.copyOf(loopNode, length);
+            loopCost = Arrays.copyOf(loopCost, length);
+            loopEdge = Arrays.copyOf(loopEdge, length);
+        }
+        loopNode[loopCount] = i;
+        loopCost[loopCount] = edgeCost;
+        loopEdge[loopCount] = edge;
+        loopCount += 1;
+    }
+    
+    private void addArc(Edge edge, int i, int j, double edgeCost) {
+        if (arcCount == arcFrom.length) {
+            int length = 2 * arcCount;
+            arcFrom = Arrays.copyOf(arcFrom, length);
+            arcTo = Arrays.copyOf(arcTo, length);
+            arcCost = Arrays.copyOf(arcCost, length);
+            arcEdge = Arrays.copyOf(arcEdge, length);
+        }
+        arcFrom[arcCount] = i;
+        arcTo[arcCount] = j;
+        arcCost[arcCount] = edgeCost;
+        arcEdge[arcCount] = edge;
+        arcCount += 1;
+    }
+    
+    synchronized double getCost(Node from, Node to) {
         if (from == null) throw new IllegalArgumentException("null from");
         if (to == null) throw new IllegalArgumentException("null to");
 
-        if (!lowCostCalculated) {
-            calcLeastCost();
-            checkValid();
-        }
-        int i = indexOf(from);
-        int j = indexOf(to);
-        
-        return cost[i][j];
+        prepare(Monitor.NONE);
+        return distance(indexOf(from), indexOf(to));
     }
     
-    Trail getTrail(Node from, Node to) {
+    synchronized Trail getTrail(Node from, Node to) {
         if (from == null) throw new IllegalArgumentException("null from");
         if (to == null) throw new IllegalArgumentException("null to");
         
-        double c = getCost(from, to);
+        prepare(Monitor.NONE);
         int i = indexOf(from);
         int j = indexOf(to);
         
-        Trail walk = new Trail(from, to, c);
+        Trail walk = new Trail(from, edgeTable());
+        if (mode != Mode.DENSE) {
+            for (int arc : routeArcs(i, j)) {
+                walk.addStep(arcEdge[arc], arcCost[arc]);
+            }
+            return walk;
+        }
         while (i != j) {
-            walk.addPath(path[i][j]);
-            i = next[i][j];
+            int k = next[i][j];
+            walk.addStep((Edge) path[i][j], cost[i][k]);
+            i = k;
         }
         return walk;
     }
     
-    Collection<Node> getUnbalanced() {
+    /** Edges by index, shared by the trails until an edge is added. */
+    private Edge[] edgeTable() {
+        if (edgeTable == null) {
+            int max = -1;
+            for (int a = 0; a < arcCount; a++) {
+                max = Math.max(max, arcEdge[a].getIndex());
+            }
+            for (int l = 0; l < loopCount; l++) {
+                max = Math.max(max, loopEdge[l].getIndex());
+            }
+            edgeTable = new Edge[max+1];
+            for (int a = 0; a < arcCount; a++) {
+                edgeTable[arcEdge[a].getIndex()] = arcEdge[a];
+            }
+            for (int l = 0; l < loopCount; l++) {
+                edgeTable[loopEdge[l].getIndex()] = loopEdge[l];
+            }
+        }
+        return edgeTable;
+    }
+    
+    /**
+     * Closed walk from <code>start</code> traversing every edge at least once at least cost 
+     * (Chinese Postman tour): the routes between the paired unbalanced nodes are added 
+     * and an Euler circuit of the result is build (Hierholzer).
+     */
+    Trail getTour(Node start) {
+        return getTour(start, Monitor.NONE);
+    }
+    
+    /** 
+     * Like {@link #getTour(Node)}, reporting the phases to <code>monitor</code>.
+     * @throws CancellationException if canceled by the monitor
+     */
+    synchronized Trail getTour(Node start, Monitor monitor) {
+        if (start == null) throw new IllegalArgumentException("null start");
+        if (monitor == null) throw new IllegalArgumentException("null monitor");
+        if (directed) 
+            throw new UnsupportedOperationException();
+        
+        int s = indexOf(start);
+        if (pairing == null) {
+            normalize(monitor);
+        }
+        int[][] routes = pairRoutes;
+        monitor.phase("tour");
+        
+        // original arcs followed by the arcs of the added routes
+        int count = arcCount;
+        int[] tourArc = new int[2 * arcCount];
+        for (int a = 0; a < arcCount; a++) {
+            tourArc[a] = a;
+        }
+        for (int[] route : routes) {
+            if (route != null) {
+                for (int arc : route) {
+                    if (count == tourArc.length) {
+                        tourArc = Arrays.copyOf(tourArc, 2 * count);
+                    }
+                    tourArc[count++] = arc;
+                }
+            }
+        }
+        int[] from = new int[count];
+        int[] to = new int[count];
+        double[] costs = new double[count];
+        for (int t = 0; t < count; t++) {
+            from[t] = arcFrom[tourArc[t]];
+            to[t] = arcTo[tourArc[t]];
+            costs[t] = arcCost[tourArc[t]];
+        }
+        Adjacency tour = new Adjacency(N, count, from, to, costs, directed);
+        
+        // Hierholzer: walk unused arcs, emit an arc when backtracking over it
+        boolean[] used = new boolean[count];
+        int[] pointer = new int[N];
+        for (int i = 0; i < N; i++) {
+            pointer[i] = tour.begin(i);
+        }
+        int[] nodeStack = new int[count+1];
+        int[] arcStack = new int[count+1];
+        int[] circuit = new int[count];
+        int size = 0;
+        int done = 0;
+        nodeStack[size] = s;
+        arcStack[size] = -1;
+        size += 1;
+        while (size > 0) {
+            int u = nodeStack[size-1];
+            int k = pointer[u];
+            while (k < tour.end(u) && used[tour.getArc(k)]) {
+                k += 1;
+            }
+            pointer[u] = k;
+            if (k < tour.end(u)) {
+                used[tour.getArc(k)] = true;
+                nodeStack[size] = tour.getTarget(k);
+                arcStack[size] = tour.getArc(k);
+                size += 1;
+            } else {
+                size -= 1;
+                if (arcStack[size] != -1) {
+                    circuit[done++] = arcStack[size];
+                }
+            }
+        }
+        if (done != count)
+            throw new IllegalStateException("graph not connected, tour has " + done + " of " + count + " edges");
+        
+        // the loops of a node are walked the first time the circuit reaches it
+        int[] firstLoop = new int[N];
+        Arrays.fill(firstLoop, -1);
+        int[] nextLoop = new int[loopCount];
+        for (int l = loopCount-1; l >= 0; l--) {
+            nextLoop[l] = firstLoop[loopNode[l]];
+            firstLoop[loopNode[l]] = l;
+        }
+        Trail result = new Trail(start, edgeTable());
+        int u = s;
+        int loops = addLoops(result, u, firstLoop, nextLoop);
+        for (int t = count-1; t >= 0; t--) {
+            int arc = tourArc[circuit[t]];
+            result.addStep(arcEdge[arc], arcCost[arc]);
+            u = (arcFrom[arc] == u) ? arcTo[arc] : arcFrom[arc];
+            loops += addLoops(result, u, firstLoop, nextLoop);
+        }
+        if (loops != loopCount)
+            throw new IllegalStateException("graph not connected, tour has " + loops + " of " + loopCount + " loops");
+        return result;
+    }
+    
+    /** Adds the loops of node <code>u</code> not yet walked to the tour, returns how many. */
+    private int addLoops(Trail tour, int u, int[] firstLoop, int[] nextLoop) {
+        int added = 0;
+        for (int l = firstLoop[u]; l != -1; l = nextLoop[l]) {
+            tour.addStep(loopEdge[l], loopCost[l]);
+            added += 1;
+        }
+        firstLoop[u] = -1;
+        return added;
+    }
+    
+    synchronized Collection<Node> getUnbalanced() {
         List<Node> result = new ArrayList<Node>();
         if (unbalanced == null) {
             calcUnbalanced();
@@ -135,11 +420,93 @@ class Solver {
         return Collections.unmodifiableCollection(result);
     }
     
-    void doNormalize() {
-        normalize();
+    /** Like {@link #getUnbalanced()}, as set of the node indices. */
+    synchronized BitSet getUnbalancedSet() {
+        BitSet result = new BitSet(position.length);
+        if (unbalanced == null) {
+            calcUnbalanced();
+        }
+        for (int i : unbalanced) {
+            result.set(nodes[i].getIndex());
+        }
+        return result;
+    }
+    
+    synchronized void doNormalize() {
+        normalize(Monitor.NONE);
+    }
+    
+    /** Partner of each unbalanced node, as index into {@link #getUnbalanced()}. */
+    synchronized int[] getPairing() {
+        if (pairing == null) {
+            normalize(Monitor.NONE);
+        }
+        return pairing.clone();
+    }
+    
+    /** Cost of the routes added to balance all nodes. */
+    synchronized double getAugmentation() {
+        if (pairing == null) {
+            normalize(Monitor.NONE);
+        }
+        return augmentation;
     }
     
-    private void calcLeastCost() {
+    private void prepare(Monitor monitor) {
+        if (!lowCostCalculated) {
+            monitor.phase("least cost routes");
+            try {
+                calcLeastCost(monitor);
+            } catch (CancellationException ex) {
+                lowCostCalculated = false;  // costs not final, calculate again next time
+                throw ex;
+            }
+            checkValid();
+        }
+    }
+    
+    /** Arcs of the least cost route from i to j. */
+    private int[] routeArcs(int i, int j) {
+        if (mode == Mode.SPARSE)
+            return sparse.getArcs(i, j);
+        
+        int count = 0;
+        for (int k = i; k != j; k = nextNode(k, j)) {
+            count += 1;
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int k = i; k != j; k = nextNode(k, j)) {
+            result[count++] = adjacency.getArc(adjacency.cheapest(k, nextNode(k, j)));
+        }
+        return result;
+    }
+    
+    /** Next node on the least cost route from i to j, not for SPARSE. */
+    private int nextNode(int i, int j) {
+        return (mode == Mode.DENSE) ? next[i][j] : flatNext[i*N+j];
+    }
+    
+    private double distance(int i, int j) {
+        switch (mode) {
+            case SPARSE: return sparse.getCost(i, j);
+            case DENSE: return cost[i][j];
+            default: return flatCost[i*N+j];
+        }
+    }
+    
+    private void calcLeastCost(Monitor monitor) {
+        if (mode == Mode.SPARSE) {
+            adjacency = new Adjacency(N, arcCount, arcFrom, arcTo, arcCost, directed);
+            sparse = new SparsePaths(adjacency);
+            lowCostCalculated = true;
+            return;
+        }
+        if (mode != Mode.DENSE) {
+            calcLeastCostFlat(monitor);
+            return;
+        }
+        adjacency = new Adjacency(N, arcCount, arcFrom, arcTo, arcCost, directed);
         try {
             if (!directed) {
                 for (int i = 0; i < N; i++) {
@@ -148,6 +515,8 @@ class Solver {
                 }
             }
             for (int k = 0; k < N; k++) {
+                if (monitor.isCanceled())
+                    throw new CancellationException("least cost routes canceled");
                 for (int i = 0; i < N; i++) {
                     if (defined[i][k]) {
                         for (int j = 0; j < N; j++) {
@@ -169,14 +538,42 @@ class Solver {
         }
     }
     
+    private void calcLeastCostFlat(Monitor monitor) {
+        adjacency = new Adjacency(N, arcCount, arcFrom, arcTo, arcCost, directed);
+        try {
+            if (!directed) {
+                for (int i = 0; i < N; i++) {
+                    flatCost[i*N+i] = 0;
+                }
+            }
+            ForkJoinPool pool = (mode == Mode.PARALLEL) ? ForkJoinPool.commonPool() : null;
+            if (!new FloydWarshall(N, flatCost, flatNext).run(pool, monitor))
+                throw new IllegalArgumentException("cycle with negative cost");
+        } finally {
+            lowCostCalculated = true;
+        }
+    }
+    
     private void checkValid() {
-        for (int i = 0; i < N; i++) {
+        for (int i = 0; i < (N > 1 ? N : 0); i++) {  // a single node is walked by its loops only
             if (in[i] == 0) 
                 throw new IllegalStateException("no connection to node " + nodes[i]);
             if (out[i] == 0) 
                 throw new IllegalStateException("no connection from node " + nodes[i]);
+        }
+        if (mode == Mode.SPARSE) {
+            // undirected: one tree reaching all nodes is enough
+            for (int i = 0; i < (directed ? N : 1); i++) {
+                for (int j = 0; j < N; j++) {
+                    if (sparse.getCost(i, j) == Double.POSITIVE_INFINITY) 
+                        throw new IllegalStateException("no route from " + nodes[i] + " to " + nodes[j]);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < N; i++) {
             for (int j = 0; j < N; j++) {
-                if (!defined[i][j]) 
+                if ((mode == Mode.DENSE) ? !defined[i][j] : flatCost[i*N+j] == Double.POSITIVE_INFINITY) 
                     throw new IllegalStateException("no route from " + nodes[i] + " to " + nodes[j]);
             }
         }
@@ -201,103 +598,51 @@ class Solver {
         unbalanced = Arrays.copyOf(result, count);
     }
 
-    private void normalize() {
-        if (!lowCostCalculated) {
-            calcLeastCost();
-            checkValid();
-        }
+    private void normalize(Monitor monitor) {
+        prepare(monitor);
         if (unbalanced == null) {
             calcUnbalanced();
         }
-        normalized = new int[N][N];
-        if (unbalanced.length == 0)
-            return;
-        
-        if (directed) {
+        if (directed) 
             throw new UnsupportedOperationException();
-        } else {
-            Set open = new Set(unbalanced.length);
-            Set closed = new Set(unbalanced.length);
-            
-            double[] gg = new double[unbalanced.length];
-            double[] hh = new double[unbalanced.length];
-            double[] ff = new double[unbalanced.length];
-            int[] result = new int[unbalanced.length];
-            
-            boolean first = true;
-            open.add(0);
-            gg[0] = 0;
-            hh[0] = minimum(closed);
-            ff[0] = hh[0];
-            while (open.getSize() > 0) {
-                int x = -1;
-                for (int i : open) {
-                    if (x == -1 || ff[i] < ff[x]) {
-                        x = i;
-                    }
-                }
-                if (!open.remove(x)) throw new IllegalStateException("remove " + x);
-                closed.add(x);
-                for (int y = 0; y < unbalanced.length; y++) {
-                    if (closed.contains(y))
-                        continue;
-//                    double testG = gg[x] + (first ? cost[unbalanced[x]][unbalanced[y]] : 0);
-                    double testG = gg[x] + cost[unbalanced[x]][unbalanced[y]];
-                    if (!open.contains(y)) {
-                        open.add(y);
-                    } else if (testG >= gg[y]) {
-                        continue;
-                    }
-                    result[x] = y;
-                    gg[y] = testG;
-                    hh[y] = first ? minimum(closed, y) : minimum(closed);
-                    ff[y] = gg[y] + hh[y];
+        
+        monitor.phase("matching");
+        int count = unbalanced.length;
+        if (sparse != null) {
+            sparse.keepTrees();  // of the unbalanced nodes, for the routes of the pairs
+        }
+        try {
+            double[][] pairCost = new double[count][count];
+            for (int x = 0; x < count; x++) {
+                if (monitor.isCanceled())
+                    throw new CancellationException("matching canceled");
+                for (int y = x+1; y < count; y++) {
+                    pairCost[x][y] = pairCost[y][x] = distance(unbalanced[x], unbalanced[y]);
                 }
-                first = !first;
-            }
-         
-            System.out.println();
-            for (int i = 0; i < result.length; i += 1) {
-                int n1 = unbalanced[i];
-                int n2 = unbalanced[result[i]];
-                System.out.println(nodes[n1] + " - " + nodes[n2]);
             }
-            System.out.println(gg[result[result.length-2]]);
-        }
-    }
-
-    private double minimum(Set closed) {
-        return minimum(closed, -1);
-    }
-    
-    private double minimum(Set closed, int actual) {
-        Set done = new Set(closed);
-        if (actual != -1) {
-            done.add(actual);
-        }
-        double expect = 0;
-        for (int i = 0; i < unbalanced.length-1; i++) {
-            if (done.contains(i))
-                continue;
-            double min = Double.MAX_VALUE;
-            for (int j = i+1; j < unbalanced.length; j++) {
-                if (done.contains(j))
-                    continue;
-                double c = cost[unbalanced[i]][unbalanced[j]];
-                if (c < min) {
-                    min = c;
-                    done.add(i);
-                    done.add(j);
+            Matching matching = new Matching(pairCost, monitor);
+            int[] pairs = matching.getPairs();
+            int[][] routes = new int[count][];
+            for (int x = 0; x < count; x++) {
+                if (x < pairs[x]) {
+                    routes[x] = routeArcs(unbalanced[x], unbalanced[pairs[x]]);
                 }
             }
-            expect += min;
+            pairRoutes = routes;
+            pairing = pairs;
+            augmentation = matching.getCost();
+        } finally {
+            if (sparse != null) {
+                sparse.clear();
+            }
         }
-        return expect;
     }
     
     private int indexOf(Node node) {
-        for (int i = 0; i < nodes.length; i++) {
-            if (node.equals(nodes[i]))
+        int index = node.getIndex();
+        if (index < position.length) {
+            int i = position[index];
+            if (i != -1 && nodes[i] == node)
                 return i;
         }
         throw new NoSuchElementException(node.toString());
@@ -313,98 +658,4 @@ class Solver {
 //        }
         return list;
     }
-    
-    private static class Set implements Iterable<Integer> {
-        private int size;
-        private int[] data;
-        
-        Set(int length) {
-            size = 0;
-            data = new int[length];
-        }
-        
-        Set(Set set) {
-            data = set.data.clone();
-            size = set.size;
-        }
-
-        boolean add(int x) {
-            if (!contains(x)) {
-                data[size++] = x;
-                return true;
-            } else {
-                return false;
-            }
-        }
-        
-//        int get(int index) {
-//            if (index < 0 || index >= size) 
-//                throw new IndexOutOfBoundsException("size: " + size + ", index: " + index);
-//            return data[index];
-//        }
-//        
-        boolean remove(int x) {
-            int i = find(x);
-            if (i >= 0) {
-                size -= 1;
-                if (i < size) {
-                    System.arraycopy(data, i+1, data, i, size-i);
-                }
-                return true;
-            } else {
-                return false;
-            }
-        }
-        
-        int find(int x) {
-            for (int i = 0; i < size; i++) {
-                if (data[i] == x)
-                    return i;
-            }
-            return -1;
-        }
-        
-        boolean contains(int x) {
-            return find(x) != -1;
-        }
-        
-        int getSize() {
-            return size;
-        }
-        
-        int[] getData() {
-            return data.clone();
-        }
-
-        @Override
-        public Iterator<Integer> iterator() {
-            return new Iterator<Integer>() {
-                private int next = 0;
-                @Override
-                public boolean hasNext() {
-                    return next < size;
-                }
-                @Override
-                public Integer next() {
-                    return data[next++];
-                }
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
-            };
-        }
-        
-        @Override
-        public String toString() {
-            String result = "(";
-            for (int i = 0; i < size; i++) {
-                if (i > 0) {
-                    result += ",";
-                }
-                result += data[i];
-            }
-            return result + ")";
-        }
-    }
 }
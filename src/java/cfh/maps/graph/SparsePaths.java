@@ -0,0 +1,111 @@
+package cfh.maps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Single source shortest paths (Dijkstra) over an {@link Adjacency}.
+ * Only the tree of the last source is held, unless {@link #keepTrees()} was called:
+ * then each tree is kept until {@link #clear()}; arc costs must not be negative.
+ */
+class SparsePaths {
+
+    private final Adjacency adjacency;
+    private final IndexHeap heap;
+
+    private final double[][] dist;  // kept trees, by source
+    private final int[][] via;
+    private boolean keep = false;
+
+    private int lastSource = -1;
+    private double[] lastDist = null;
+    private int[] lastVia = null;
+
+    SparsePaths(Adjacency adjacency) {
+        if (adjacency == null) throw new IllegalArgumentException("null adjacency");
+
+        this.adjacency = adjacency;
+        int n = adjacency.getNodeCount();
+        heap = new IndexHeap(n);
+        dist = new double[n][];
+        via = new int[n][];
+    }
+
+    /** Keeps all trees calculated from now on, for repeated queries from many sources. */
+    synchronized void keepTrees() {
+        keep = true;
+    }
+
+    /** Drops the kept trees, only the last one is held from now on. */
+    synchronized void clear() {
+        keep = false;
+        Arrays.fill(dist, null);
+        Arrays.fill(via, null);
+    }
+
+    /** Cost of the cheapest route, {@link Double#POSITIVE_INFINITY} if there is none. */
+    synchronized double getCost(int from, int to) {
+        tree(from);
+        return lastDist[to];
+    }
+
+    /** Arcs of the cheapest route in walking order, <code>null</code> if there is none. */
+    synchronized int[] getArcs(int from, int to) {
+        tree(from);
+        if (lastDist[to] == Double.POSITIVE_INFINITY)
+            return null;
+        int[] slots = lastVia;
+        int count = 0;
+        for (int v = to; v != from; v = adjacency.getSource(slots[v])) {
+            count += 1;
+        }
+        int[] result = new int[count];
+        for (int v = to; v != from; v = adjacency.getSource(slots[v])) {
+            result[--count] = adjacency.getArc(slots[v]);
+        }
+        return result;
+    }
+
+    /** Makes the tree of <code>source</code> the last one. */
+    private void tree(int source) {
+        if (source == lastSource)
+            return;
+        if (dist[source] != null) {
+            lastDist = dist[source];
+            lastVia = via[source];
+        } else {
+            calcTree(source);
+            if (keep) {
+                dist[source] = lastDist;
+                via[source] = lastVia;
+            }
+        }
+        lastSource = source;
+    }
+
+    private void calcTree(int source) {
+        int n = adjacency.getNodeCount();
+        double[] d = new double[n];
+        int[] v = new int[n];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        Arrays.fill(v, -1);
+
+        d[source] = 0;
+        heap.clear();
+        heap.push(source, 0);
+        while (!heap.isEmpty()) {
+            int u = heap.pop();
+            double du = d[u];
+            for (int k = adjacency.begin(u); k < adjacency.end(u); k++) {
+                int t = adjacency.getTarget(k);
+                double c = du + adjacency.getCost(k);
+                if (c < d[t]) {
+                    d[t] = c;
+                    v[t] = k;
+                    heap.push(t, c);
+                }
+            }
+        }
+        lastVia = v;
+        lastDist = d;
+    }
+}
@@ -1,28 +1,79 @@
 package cfh.maps.graph;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-class Trail {
+/**
+ * Route of edges from a node, built by adding one step after the other.
+ * <p>
+ * Each step is kept as edge index shifted left by one, the lowest bit set if the edge
+ * is walked from node 2 to node 1; the edges are resolved by a table indexed by edge,
+ * shared by all trails of the same router or solver. The distance from the start is
+ * summed up while adding, so it is available for every step without walking the route.
+ */
+class Trail implements Iterable<Edge> {
+    
+    private static final int REVERSED = 1;
     
     private final Node from;
-    private final Node to;
-    private final double cost;
-    private final List<Object> path = new ArrayList<Object>();
+    private final Edge[] table;  // by edge index, not copied
+    
+    private Node to;
+    private int size = 0;
+    private int[] steps = new int[16];
+    private double[] distance = new double[17];  // distance[k]: cost of the first k steps
+    private final BitSet edgeSet = new BitSet();  // by edge index
     
-    Trail(Node from, Node to, double cost) {
+    Trail(Node from, Edge[] table) {
         assert from != null;
-        assert to != null;
-        assert cost >= 0 : cost;
+        assert table != null;
         
         this.from = from;
-        this.to = to;
-        this.cost = cost;
+        this.to = from;
+        this.table = table;
     }
     
-    void addPath(Object edge) {
-        path.add(edge);
+    /** Adds the edge starting at the actual end of the trail. */
+    void addStep(Edge edge, double cost) {
+        assert edge != null;
+        assert table[edge.getIndex()] == edge : edge;
+        assert edge.getNode1() == to || edge.getNode2() == to : edge + " not at " + to;
+        assert cost >= 0 : cost;
+        
+        if (size == steps.length) {
+            steps = Arrays.copyOf(steps, 2*size);
+            distance = Arrays.copyOf(distance, 2*size + 1);
+        }
+        int step = edge.getIndex() << 1;
+        if (edge.getNode1() == to) {
+            to = edge.getNode2();
+        } else {
+            step |= REVERSED;
+            to = edge.getNode1();
+        }
+        steps[size] = step;
+        distance[size+1] = distance[size] + cost;
+        size += 1;
+        edgeSet.set(edge.getIndex());
+    }
+    
+    /** Removes the last step, the trail ends again where that step started. */
+    void removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException("no steps");
+        
+        size -= 1;
+        int step = steps[size];
+        int index = step >>> 1;
+        Edge edge = table[index];
+        to = ((step & REVERSED) != 0) ? edge.getNode2() : edge.getNode1();
+        for (int i = 0; i < size; i++) {
+            if (steps[i] >>> 1 == index)
+                return;  // edge still in an earlier step
+        }
+        edgeSet.clear(index);
     }
     
     public Node getFrom() {
@@ -34,10 +85,94 @@ class Trail {
     }
     
     public double getCost() {
-        return cost;
+        return distance[size];
+    }
+    
+    /** Number of steps. */
+    int size() {
+        return size;
+    }
+    
+    int getEdgeIndex(int step) {
+        checkStep(step);
+        return steps[step] >>> 1;
+    }
+    
+    Edge getEdge(int step) {
+        return table[getEdgeIndex(step)];
+    }
+    
+    /** If the edge of the step is walked from node 2 to node 1. */
+    boolean isReversed(int step) {
+        checkStep(step);
+        return (steps[step] & REVERSED) != 0;
+    }
+    
+    /** Cost of the first <code>step</code> steps, <code>0</code> to {@link #size()}. */
+    double getDistance(int step) {
+        if (step < 0 || step > size) 
+            throw new IndexOutOfBoundsException("step " + step + " of " + size);
+        return distance[step];
+    }
+    
+    /** If the edge is in the path, without searching it. */
+    boolean contains(Edge edge) {
+        return edgeSet.get(edge.getIndex());
+    }
+    
+    /** The edges of the steps, in order. */
+    @Override
+    public Iterator<Edge> iterator() {
+        return new Iterator<Edge>() {
+            private int next = 0;
+            
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+            
+            @Override
+            public Edge next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+                return table[steps[next++] >>> 1];
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    private void checkStep(int step) {
+        if (step < 0 || step >= size) 
+            throw new IndexOutOfBoundsException("step " + step + " of " + size);
+    }
+    
+    /** Same start and the same steps in the same direction. */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof Trail))
+            return false;
+        Trail other = (Trail) obj;
+        if (!other.from.equals(from) || other.size != size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (other.steps[i] != steps[i])
+                return false;
+        }
+        return true;
     }
     
-    public List<Object> getPath() {
-        return Collections.unmodifiableList(path);
+    @Override
+    public int hashCode() {
+        int hash = from.hashCode();
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + steps[i];
+        }
+        return hash;
     }
 }
\ No newline at end of file
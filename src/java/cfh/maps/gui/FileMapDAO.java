@@ -2,35 +2,212 @@ package cfh.maps.gui;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
+import javax.swing.SwingWorker;
 
-class FileMapDAO implements MapDAO {
+/**
+ * Map file.
+ * <p>
+ * Version 200 is written: a fixed header with the offsets of the sections, the points
+ * as packed <code>x,y</code> ints, the lines as pairs of point indices and the image as PNG.
+ * <pre>
+ *   int MAGIC, int VERSION, int points, int lines,
+ *   long point offset, long line offset, long image offset, long image length
+ * </pre>
+ * All big endian. Version 100 files (an object stream with the coordinates of the line
+ * end points) are still read.
+ * <p>
+ * The image is decoded as given by the {@link ImageMode}; geometry is always read at once.
+ */
+public class FileMapDAO implements MapDAO {
+
+    public enum ImageMode {
+        /** Decode the image before returning the map. */
+        DECODE,
+        /** Return the map without image and decode it in background, see {@link FileMapDAO#getImageLoader()}. */
+        BACKGROUND,
+        /** Do not read the image at all. */
+        SKIP
+    }
 
     private static final int MAGIC = 0x00CAFE00;
     
     private static final int VERSION = 100;
+    private static final int VERSION2 = 200;
+    
+    private static final int HEADER_SIZE = 4*4 + 4*8;
     
     private final File file;
+    private final ImageMode imageMode;
     
-    FileMapDAO(File file) {
+    private Future<BufferedImage> imageLoader = null;
+    
+    public FileMapDAO(File file) {
+        this(file, ImageMode.DECODE);
+    }
+    
+    public FileMapDAO(File file, ImageMode imageMode) {
         if (file == null) throw new IllegalArgumentException("null File");
+        if (imageMode == null) throw new IllegalArgumentException("null ImageMode");
         
         this.file = file;
+        this.imageMode = imageMode;
+    }
+    
+    /**
+     * Decoding started by the last {@link #read()} in {@link ImageMode#BACKGROUND}, <code>null</code> if none.
+     * When done, the image is set on the map on the event dispatch thread, unless it already has one.
+     */
+    Future<BufferedImage> getImageLoader() {
+        return imageLoader;
     }
     
     @Override
     public Map read() throws IOException {
+        imageLoader = null;
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            FileChannel channel = inp.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.remaining() >= 4 && header.getShort(0) == ObjectStreamConstants.STREAM_MAGIC)
+                return readVersion1();
+            
+            if (header.remaining() < 8)
+                throw new IOException("unrecognized file (size: " + header.remaining() + ")");
+            int magic = header.getInt();
+            if (magic != MAGIC)
+                throw new IOException("unrecognized file (magic: " + Integer.toHexString(magic) + ")");
+            int version = header.getInt();
+            switch (version) {
+                case VERSION2: break;
+                default: throw new IOException("unrecognized version " + version);
+            }
+            if (header.remaining() < HEADER_SIZE - 8)
+                throw new EOFException("incomplete header");
+            return readVersion2(channel, header);
+        } finally {
+            inp.close();
+        }
+    }
+
+    private Map readVersion2(FileChannel channel, ByteBuffer header) throws IOException {
+        int pointCount = header.getInt();
+        int lineCount = header.getInt();
+        long pointOffset = header.getLong();
+        long lineOffset = header.getLong();
+        long imageOffset = header.getLong();
+        long imageLength = header.getLong();
+        if (pointCount < 0 || lineCount < 0 || imageLength < 0 || imageLength > Integer.MAX_VALUE)
+            throw new IOException("invalid header (points: " + pointCount + ", lines: " + lineCount 
+                    + ", image: " + imageLength + ")");
+        
+        int[] coords = readInts(channel, pointOffset, 2*pointCount);
+        int[] ends = readInts(channel, lineOffset, 2*lineCount);
+        
+        List<Point> points = new ArrayList<Point>(pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            points.add(new Point(coords[2*i], coords[2*i+1]));
+        }
+        List<Line> lines = new ArrayList<Line>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            int from = ends[2*i];
+            int to = ends[2*i+1];
+            if (from < 0 || from >= pointCount)
+                throw new IOException("invalid start point " + from + " for line " + i);
+            if (to < 0 || to >= pointCount)
+                throw new IOException("invalid end point " + to + " for line " + i);
+            lines.add(new Line(points.get(from), points.get(to)));
+        }
+        
         Map map = new Map();
-        ObjectInputStream inp = new ObjectInputStream(new FileInputStream(file));
+        map.addAll(points, lines);
+        if (imageLength > 0) {
+            switch (imageMode) {
+                case DECODE:
+                    map.setImage(decodeImage(readImageData(channel, imageOffset, (int) imageLength)));
+                    break;
+                case BACKGROUND:
+                    startLoader(new ImageLoader(map, file, imageOffset, (int) imageLength));
+                    break;
+                case SKIP:
+                    break;
+                default: throw new IllegalArgumentException("unhandled mode " + imageMode);
+            }
+        }
+        
+        return map;
+    }
+
+    private static byte[] readImageData(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, offset);
+        if (buffer.hasRemaining())
+            throw new EOFException("incomplete image");
+        return buffer.array();
+    }
+
+    private static BufferedImage decodeImage(byte[] data) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null)
+            throw new IOException("unrecognized image");
+        return image;
+    }
+
+    private void startLoader(ImageLoader loader) {
+        imageLoader = loader;
+        loader.execute();
+    }
+
+    /** Reads <code>count</code> ints in one go. */
+    private int[] readInts(FileChannel channel, long offset, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * count);
+        readFully(channel, buffer, offset);
+        if (buffer.hasRemaining())
+            throw new EOFException("section at " + offset + " incomplete");
+        buffer.flip();
+        int[] result = new int[count];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(result);
+        return result;
+    }
+
+    /** Reads until the buffer is full or the end of file is reached. */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count == -1)
+                break;
+            position += count;
+        }
+    }
+
+    private Map readVersion1() throws IOException {
+        Map map = new Map();
+        ObjectInputStream inp = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
         try {
             int version = readHeader(inp);
             switch (version) {
@@ -39,22 +216,37 @@ class FileMapDAO implements MapDAO {
             }
             Point[] points = readPoints(inp);
             Line[] lines = readLines(inp);
-            BufferedImage image = readImage(inp);
             
-            map.setImage(image);
-            for (Point point : points) {
-                map.addPoint(point);
-            }
+            List<Point> pointList = Arrays.asList(points.clone());
+            List<Line> lineList = new ArrayList<Line>(lines.length);
             Arrays.sort(points);
             for (int i = 0; i < lines.length; i++) {
                 int from = Arrays.binarySearch(points, lines[i].getFrom());
-                if (from == -1)
+                if (from < 0)
                     throw new IOException("missing start point " + lines[i].getFrom() + " for line " + i);
                 int to = Arrays.binarySearch(points, lines[i].getTo());
-                if (to == -1)
+                if (to < 0)
                     throw new IOException("missing end point " + lines[i].getTo() + " for line " + i);
-                Line line = new Line(points[from], points[to]);
-                map.addLine(line);
+                lineList.add(new Line(points[from], points[to]));
+            }
+            map.addAll(pointList, lineList);
+            
+            switch (imageMode) {
+                case DECODE:
+                    BufferedImage image = ImageIO.read(inp);
+                    if (image != null) {
+                        map.setImage(image);
+                    }
+                    break;
+                case BACKGROUND:
+                    byte[] data = readRemaining(inp);
+                    if (data.length > 0) {
+                        startLoader(new ImageLoader(map, data));
+                    }
+                    break;
+                case SKIP:
+                    break;
+                default: throw new IllegalArgumentException("unhandled mode " + imageMode);
             }
             
             return map;
@@ -89,8 +281,15 @@ class FileMapDAO implements MapDAO {
         return lines;
     }
 
-    private BufferedImage readImage(ObjectInputStream inp) throws IOException {
-        return ImageIO.read(inp);
+    /** The image is at the end of the object stream, its position in the file is not known. */
+    private byte[] readRemaining(InputStream inp) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inp.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
     }
     
     private Point readPoint(ObjectInputStream inp) throws IOException {
@@ -103,49 +302,117 @@ class FileMapDAO implements MapDAO {
 
     @Override
     public void save(Map map) throws IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+        save(map.getPoints(), map.getLines(), map.getImage());
+    }
+
+    /** Saves a map given by its parts, the lines must only use the given points. */
+    void save(List<Point> points, List<Line> lines, RenderedImage image) throws IOException {
+        ByteBuffer pointBuffer = ByteBuffer.allocate(8 * points.size());
+        IdentityHashMap<Point, Integer> index = new IdentityHashMap<Point, Integer>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            Point point = points.get(i);
+            pointBuffer.putInt(point.getX()).putInt(point.getY());
+            index.put(point, i);
+        }
+        pointBuffer.flip();
+        
+        ByteBuffer lineBuffer = ByteBuffer.allocate(8 * lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            Integer from = index.get(line.getFrom());
+            if (from == null)
+                throw new IOException("missing start point " + line.getFrom() + " for line " + i);
+            Integer to = index.get(line.getTo());
+            if (to == null)
+                throw new IOException("missing end point " + line.getTo() + " for line " + i);
+            lineBuffer.putInt(from).putInt(to);
+        }
+        lineBuffer.flip();
+        
+        ByteBuffer imageBuffer = writeImage(image);
+        
+        long pointOffset = HEADER_SIZE;
+        long lineOffset = pointOffset + pointBuffer.remaining();
+        long imageOffset = lineOffset + lineBuffer.remaining();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION2);
+        header.putInt(points.size()).putInt(lines.size());
+        header.putLong(pointOffset).putLong(lineOffset);
+        header.putLong(imageOffset).putLong(imageBuffer.remaining());
+        header.flip();
+        
+        FileOutputStream out = new FileOutputStream(file);
         try {
-            writeHeader(out);
-            writePoints(out, map.getPoints());
-            writeLines(out, map.getLines());
-            writeImage(out, map.getImage());
+            FileChannel channel = out.getChannel();
+            ByteBuffer[] buffers = { header, pointBuffer, lineBuffer, imageBuffer };
+            while (imageBuffer.hasRemaining() || lineBuffer.hasRemaining() || pointBuffer.hasRemaining() 
+                    || header.hasRemaining()) {
+                channel.write(buffers);
+            }
         } finally {
             out.close();
         }
     }
 
-    private void writeHeader(ObjectOutputStream out) throws IOException {
-        out.writeInt(MAGIC);
-        out.writeInt(VERSION);
+    private ByteBuffer writeImage(RenderedImage image) throws IOException {
+        if (image == null)
+            return ByteBuffer.allocate(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return ByteBuffer.wrap(out.toByteArray());
     }
 
-    private void writePoints(ObjectOutputStream out, List<Point> points) throws IOException {
-        out.writeInt(points.size());
-        for (Point point : points) {
-            writePoint(out, point);
-        }
-    }
-    
-    private void writeLines(ObjectOutputStream out, List<Line> lines) throws IOException {
-        out.writeInt(lines.size());
-        for (Line line : lines) {
-            writeLine(out, line);
+    /** Decodes the image off the event dispatch thread, from the data or from the section of the file. */
+    private static class ImageLoader extends SwingWorker<BufferedImage, Void> {
+
+        private final Map map;
+        private final File file;
+        private final long offset;
+        private final int length;
+        private final byte[] data;
+
+        ImageLoader(Map map, byte[] data) {
+            this.map = map;
+            this.file = null;
+            this.offset = 0;
+            this.length = data.length;
+            this.data = data;
         }
-    }
 
-    private void writeImage(ObjectOutputStream out, RenderedImage image) throws IOException {
-        if (image != null) {
-            ImageIO.write(image, "png", out);
+        ImageLoader(Map map, File file, long offset, int length) {
+            this.map = map;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.data = null;
         }
-    }
 
-    private void writePoint(ObjectOutputStream out, Point point) throws IOException {
-        out.writeInt(point.getX());
-        out.writeInt(point.getY());
-    }
+        @Override
+        protected BufferedImage doInBackground() throws Exception {
+            if (data != null)
+                return decodeImage(data);
+            FileInputStream inp = new FileInputStream(file);
+            try {
+                return decodeImage(readImageData(inp.getChannel(), offset, length));
+            } finally {
+                inp.close();
+            }
+        }
 
-    private void writeLine(ObjectOutputStream out, Line line) throws IOException {
-        writePoint(out, line.getFrom());
-        writePoint(out, line.getTo());
+        @Override
+        protected void done() {
+            try {
+                BufferedImage image = get();
+                if (map.getImage() == null) {
+                    map.setImage(image);
+                }
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+            } catch (CancellationException ex) {
+                // image not needed anymore
+            }
+        }
     }
 }
@@ -0,0 +1,716 @@
+package cfh.maps.gui;
+
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import javax.swing.SwingWorker;
+
+import cfh.maps.gui.FileMapDAO.ImageMode;
+
+/**
+ * Map file with a journal of the changes made since it was written.
+ * <p>
+ * The map file is a snapshot written by {@link FileMapDAO}. Next to it <code>&lt;file&gt;.journal</code>
+ * starts with the CRC32 of the snapshot and the ids of its points and lines (in file order),
+ * followed by one record for each change of the map:
+ * <pre>
+ *   ADD_POINT id x y, REMOVE_POINT id, MOVE_POINT id x y, ADD_LINE id from to, REMOVE_LINE id
+ * </pre>
+ * After {@link #read()} or {@link #save(Map)} the changes of the map are appended as they
+ * are made, so saving costs only the changes. Replaying is idempotent; a journal of another
+ * snapshot is ignored and an incomplete last record is dropped. After many records, or if the
+ * image changes, a new snapshot is written in background and the journal restarts from it.
+ * Consecutive moves of the same point, as while dragging it, are merged into one record
+ * written with the next change, by {@link #flush()} or when closed.
+ * <p>
+ * The map must be changed on the event dispatch thread, which is never blocked waiting for
+ * a snapshot; failures writing one are reported as {@link #PROP_FAILURE} property change.
+ */
+class JournalMapDAO implements MapDAO, Closeable {
+
+    /** Property changed to the exception if writing a snapshot failed. */
+    static final String PROP_FAILURE = "failure";
+
+    private static final int MAGIC = 0x00CAFE00;
+
+    private static final int VERSION = 100;
+
+    private static final byte ADD_POINT = 1;
+    private static final byte REMOVE_POINT = 2;
+    private static final byte MOVE_POINT = 3;
+    private static final byte ADD_LINE = 4;
+    private static final byte REMOVE_LINE = 5;
+
+    /** Records before compacting, at least as many as points and lines. */
+    private static final int COMPACT_RECORDS = 1000;
+
+    private final File file;
+    private final File journalFile;
+    private final File journalTemp;
+    private final File snapshotTemp;
+    private final ImageMode imageMode;
+
+    private Map map = null;
+    private final IdentityHashMap<Point, Integer> pointIds = new IdentityHashMap<Point, Integer>();
+    private final IdentityHashMap<Line, Integer> lineIds = new IdentityHashMap<Line, Integer>();
+    private int nextId = 0;
+
+    private long checksum;           // of the snapshot
+    private int[] basePointIds;      // snapshot ids while there is no journal file yet
+    private int[] baseLineIds;
+    private FileChannel journal = null;
+    private final ByteBuffer record = ByteBuffer.allocate(1 + 3*4);
+    private int records = 0;         // since the snapshot
+
+    private Compaction compaction = null;
+    private ByteArrayOutputStream pending = null;  // records made during the compaction
+    private int pendingRecords = 0;
+    private Future<BufferedImage> imageLoader = null;
+    private final List<Runnable> closedActions = new ArrayList<Runnable>();
+
+    private Point movedPoint = null;  // last move not written yet
+    private int movedId;
+
+    private final Listener listener = new Listener();
+    private final PropertyChangeSupport support = new PropertyChangeSupport(this);
+
+    JournalMapDAO(File file) {
+        this(file, ImageMode.DECODE);
+    }
+
+    JournalMapDAO(File file, ImageMode imageMode) {
+        if (file == null) throw new IllegalArgumentException("null File");
+        if (imageMode == null) throw new IllegalArgumentException("null ImageMode");
+
+        this.file = file;
+        this.journalFile = new File(file.getPath() + ".journal");
+        this.journalTemp = new File(file.getPath() + ".journal.tmp");
+        this.snapshotTemp = new File(file.getPath() + ".tmp");
+        this.imageMode = imageMode;
+    }
+
+    /** See {@link FileMapDAO#getImageLoader()}. */
+    Future<BufferedImage> getImageLoader() {
+        return imageLoader;
+    }
+
+    /** Reads the snapshot, replays the journal and starts journaling the changes of the returned map. */
+    @Override
+    public Map read() throws IOException {
+        close();
+        checkIdle();
+
+        FileMapDAO snapshot = new FileMapDAO(file, imageMode);
+        Map result = snapshot.read();
+        imageLoader = snapshot.getImageLoader();
+        checksum = checksum(file);
+
+        pointIds.clear();
+        lineIds.clear();
+        List<Point> points = result.getPoints();
+        List<Line> lines = result.getLines();
+
+        File source = null;
+        ByteBuffer data = null;
+        for (File candidate : new File[] { journalFile, journalTemp }) {
+            if (candidate.exists()) {
+                ByteBuffer buffer = readFile(candidate);
+                if (matches(buffer, points.size(), lines.size())) {
+                    source = candidate;
+                    data = buffer;
+                    break;
+                }
+                System.err.println("ignoring journal " + candidate + " of other snapshot");
+            }
+        }
+
+        if (data == null) {
+            basePointIds = new int[points.size()];
+            for (int i = 0; i < basePointIds.length; i++) {
+                basePointIds[i] = i;
+                pointIds.put(points.get(i), i);
+            }
+            baseLineIds = new int[lines.size()];
+            for (int i = 0; i < baseLineIds.length; i++) {
+                baseLineIds[i] = points.size() + i;
+                lineIds.put(lines.get(i), points.size() + i);
+            }
+            nextId = points.size() + lines.size();
+            records = 0;
+            if (journalFile.exists() && !journalFile.delete())
+                throw new IOException("unable to delete " + journalFile);
+        } else {
+            int valid = replay(result, data);
+            if (source != journalFile) {
+                Files.move(source.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            journal = openJournal(journalFile, valid);
+        }
+        journalTemp.delete();
+        snapshotTemp.delete();
+
+        attach(result);
+        return result;
+    }
+
+    /** Writes the map as new snapshot with an empty journal and starts journaling its changes. */
+    @Override
+    public void save(Map map) throws IOException {
+        close();
+        checkIdle();
+
+        int[][] ids = assignIds(map);
+        int[] pids = ids[0];
+        int[] lids = ids[1];
+
+        new FileMapDAO(file).save(map);
+        checksum = checksum(file);
+        writeBase(journalFile, checksum, nextId, pids, lids);
+        journal = openJournal(journalFile, -1);
+        records = 0;
+        imageLoader = null;
+
+        attach(map);
+    }
+
+    /**
+     * Like {@link #save(Map)}, but writes the snapshot in background, with the image decoded by
+     * <code>imageLoader</code> if the map has none yet. The changes are journaled from now on.
+     */
+    void save(Map map, Future<BufferedImage> imageLoader) throws IOException {
+        if (map == null) throw new IllegalArgumentException("null Map");
+        close();
+        checkIdle();
+
+        assignIds(map);
+        journal = null;
+        basePointIds = null;  // records kept for the snapshot
+        baseLineIds = null;
+        records = 0;
+        this.imageLoader = imageLoader;
+
+        attach(map);
+        compact();
+    }
+
+    /** @return the ids of the points and of the lines, in map order */
+    private int[][] assignIds(Map map) {
+        pointIds.clear();
+        lineIds.clear();
+        nextId = 0;
+        List<Point> points = map.getPoints();
+        List<Line> lines = map.getLines();
+        int[] pids = new int[points.size()];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = nextId;
+            pointIds.put(points.get(i), nextId++);
+        }
+        int[] lids = new int[lines.size()];
+        for (int i = 0; i < lids.length; i++) {
+            lids[i] = nextId;
+            lineIds.put(lines.get(i), nextId++);
+        }
+        return new int[][] { pids, lids };
+    }
+
+    /** Writes a new snapshot in background, nothing if already compacting. */
+    void compact() {
+        if (map == null || compaction != null)
+            return;
+
+        List<Point> mapPoints = map.getPoints();
+        List<Line> mapLines = map.getLines();
+        IdentityHashMap<Point, Point> copies = new IdentityHashMap<Point, Point>(mapPoints.size());
+        List<Point> points = new ArrayList<Point>(mapPoints.size());
+        int[] pids = new int[mapPoints.size()];
+        for (int i = 0; i < pids.length; i++) {
+            Point point = mapPoints.get(i);
+            Point copy = new Point(point.getX(), point.getY());
+            copies.put(point, copy);
+            points.add(copy);
+            pids[i] = pointIds.get(point);
+        }
+        List<Line> lines = new ArrayList<Line>(mapLines.size());
+        int[] lids = new int[mapLines.size()];
+        for (int i = 0; i < lids.length; i++) {
+            Line line = mapLines.get(i);
+            Point from = copies.get(line.getFrom());
+            Point to = copies.get(line.getTo());
+            if (from == null || to == null) {
+                System.err.println("not compacting, line " + i + " with missing point");
+                return;
+            }
+            lines.add(new Line(from, to));
+            lids[i] = lineIds.get(line);
+        }
+        BufferedImage image = map.getImage();
+        Future<BufferedImage> loader = (image == null) ? imageLoader : null;  // still decoding
+
+        pending = new ByteArrayOutputStream();
+        pendingRecords = 0;
+        compaction = new Compaction(points, pids, lines, lids, image, loader, nextId);
+        compaction.execute();
+    }
+
+    /** Writes the last move of a point, merged while it is dragged. */
+    void flush() {
+        if (movedPoint != null) {
+            Point point = movedPoint;
+            movedPoint = null;
+            append(MOVE_POINT, movedId, point.getX(), point.getY());
+        }
+    }
+
+    /** Stops journaling; a running compaction is finished in background, see {@link #whenClosed(Runnable)}. */
+    @Override
+    public void close() throws IOException {
+        if (map != null) {
+            flush();
+            map.removeMapListener(listener);
+            map.removePropertyChangeListener(listener);
+            map = null;
+        }
+        if (compaction == null) {
+            try {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+            } finally {
+                runClosedActions();
+            }
+        }
+    }
+
+    /**
+     * Runs the action on the event dispatch thread when closed and no compaction is running anymore,
+     * at once if already so. Needed before the files are used again.
+     */
+    void whenClosed(Runnable action) {
+        if (action == null) throw new IllegalArgumentException("null action");
+        closedActions.add(action);
+        if (map == null && compaction == null) {
+            runClosedActions();
+        }
+    }
+
+    private void runClosedActions() {
+        List<Runnable> actions = new ArrayList<Runnable>(closedActions);
+        closedActions.clear();
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    private void checkIdle() {
+        if (compaction != null)
+            throw new IllegalStateException("still compacting, see whenClosed");
+    }
+
+    void addPropertyChangeListener(PropertyChangeListener listener) {
+        support.addPropertyChangeListener(listener);
+    }
+
+    void removePropertyChangeListener(PropertyChangeListener listener) {
+        support.removePropertyChangeListener(listener);
+    }
+
+    private void attach(Map map) {
+        this.map = map;
+        map.addMapListener(listener);
+        map.addPropertyChangeListener(listener);
+    }
+
+    /** Header of the journal fits the snapshot. */
+    private boolean matches(ByteBuffer data, int points, int lines) {
+        if (data.remaining() < 4+4+8+4+4 + 4*points + 4)
+            return false;
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION || data.getLong(8) != checksum)
+            return false;
+        if (data.getInt(20) != points || data.getInt(24 + 4*points) != lines)
+            return false;
+        return data.remaining() >= 4+4+8+4+4 + 4*points + 4 + 4*lines;
+    }
+
+    /** @return the length of the complete records */
+    private int replay(Map target, ByteBuffer data) {
+        data.position(16);
+        nextId = data.getInt();
+        List<Point> points = new ArrayList<Point>(target.getPoints());
+        List<Line> lines = new ArrayList<Line>(target.getLines());
+        HashMap<Integer, Point> pointById = new HashMap<Integer, Point>();
+        HashMap<Integer, Line> lineById = new HashMap<Integer, Line>();
+        data.getInt();
+        for (Point point : points) {
+            int id = data.getInt();
+            pointById.put(id, point);
+            pointIds.put(point, id);
+        }
+        data.getInt();
+        for (Line line : lines) {
+            int id = data.getInt();
+            lineById.put(id, line);
+            lineIds.put(line, id);
+        }
+
+        records = 0;
+        while (data.hasRemaining()) {
+            int start = data.position();
+            byte type = data.get();
+            int size = (type == REMOVE_POINT || type == REMOVE_LINE) ? 4 : 3*4;
+            if (data.remaining() < size) {
+                data.position(start);
+                break;
+            }
+            int id = data.getInt();
+            switch (type) {
+                case ADD_POINT: {
+                    int x = data.getInt();
+                    int y = data.getInt();
+                    if (!pointById.containsKey(id)) {
+                        Point point = new Point(x, y);
+                        target.addPoint(point);
+                        pointById.put(id, point);
+                        pointIds.put(point, id);
+                    }
+                    break;
+                }
+                case REMOVE_POINT: {
+                    Point point = pointById.remove(id);
+                    if (point != null) {
+                        target.removePoint(point);
+                        pointIds.remove(point);
+                    }
+                    break;
+                }
+                case MOVE_POINT: {
+                    int x = data.getInt();
+                    int y = data.getInt();
+                    Point point = pointById.get(id);
+                    if (point != null) {
+                        target.movePoint(point, x, y);
+                    }
+                    break;
+                }
+                case ADD_LINE: {
+                    Point from = pointById.get(data.getInt());
+                    Point to = pointById.get(data.getInt());
+                    if (!lineById.containsKey(id) && from != null && to != null) {
+                        Line line = new Line(from, to);
+                        target.addLine(line);
+                        lineById.put(id, line);
+                        lineIds.put(line, id);
+                    }
+                    break;
+                }
+                case REMOVE_LINE: {
+                    Line line = lineById.remove(id);
+                    if (line != null) {
+                        target.removeLine(line);
+                        lineIds.remove(line);
+                    }
+                    break;
+                }
+                default:
+                    System.err.println("ignoring journal after unknown record " + type + " at " + start);
+                    data.position(start);
+                    return start;
+            }
+            nextId = Math.max(nextId, id+1);
+            records += 1;
+        }
+        return data.position();
+    }
+
+    private void append(byte type, int id) {
+        record.clear();
+        record.put(type).putInt(id);
+        write();
+    }
+
+    private void append(byte type, int id, int a, int b) {
+        record.clear();
+        record.put(type).putInt(id).putInt(a).putInt(b);
+        write();
+    }
+
+    private void write() {
+        record.flip();
+        if (pending != null) {
+            pending.write(record.array(), 0, record.limit());
+            pendingRecords += 1;
+        }
+        try {
+            if (journal == null) {
+                if (basePointIds == null)
+                    return;  // after a failed write, the records are kept for the compaction
+                writeBase(journalFile, checksum, nextId, basePointIds, baseLineIds);
+                journal = openJournal(journalFile, -1);
+            }
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            records += 1;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            try {
+                journal.close();
+            } catch (Exception ex1) {
+                ex1.printStackTrace();
+            }
+            journal = null;  // possibly incomplete record, only a new snapshot helps
+            basePointIds = null;
+            compact();
+            return;
+        }
+        if (records > COMPACT_RECORDS && records > pointIds.size() + lineIds.size()) {
+            compact();
+        }
+    }
+
+    /** Installs the new snapshot and journal, adding the records made while writing them. */
+    private void finish(Compaction done) {
+        if (compaction != done)
+            return;
+        compaction = null;
+        try {
+            long crc = done.get();
+            FileOutputStream out = new FileOutputStream(journalTemp, true);
+            try {
+                out.write(pending.toByteArray());
+            } finally {
+                out.close();
+            }
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            Files.move(snapshotTemp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(journalTemp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            checksum = crc;
+            records = pendingRecords;
+            imageLoader = null;
+            if (map != null) {
+                journal = openJournal(journalFile, -1);
+            }
+        } catch (Exception ex) {
+            Throwable cause = (ex instanceof ExecutionException) ? ex.getCause() : ex;
+            cause.printStackTrace();
+            support.firePropertyChange(PROP_FAILURE, null, cause);
+        } finally {
+            pending = null;
+            if (map == null) {
+                try {
+                    if (journal != null) {
+                        journal.close();
+                        journal = null;
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                runClosedActions();
+            }
+        }
+    }
+
+    private static void writeBase(File target, long checksum, int nextId, int[] pointIds, int[] lineIds)
+    throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4+4+8+4 + 4+4*pointIds.length + 4+4*lineIds.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(checksum).putInt(nextId);
+        buffer.putInt(pointIds.length);
+        buffer.asIntBuffer().put(pointIds);
+        buffer.position(buffer.position() + 4*pointIds.length);
+        buffer.putInt(lineIds.length);
+        buffer.asIntBuffer().put(lineIds);
+        buffer.position(buffer.position() + 4*lineIds.length);
+        buffer.flip();
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Opens the journal for appending after <code>length</code> bytes, <code>-1</code> for all. */
+    private static FileChannel openJournal(File journal, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        if (length != -1) {
+            raf.setLength(length);
+        }
+        FileChannel channel = raf.getChannel();
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            FileChannel channel = inp.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // until full
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            inp.close();
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream inp = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int count;
+            while ((count = inp.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            inp.close();
+        }
+        return crc.getValue();
+    }
+
+    private class Listener implements MapListener, PropertyChangeListener {
+
+        @Override
+        public void pointAdded(Point point) {
+            flush();
+            int id = nextId++;
+            pointIds.put(point, id);
+            append(ADD_POINT, id, point.getX(), point.getY());
+        }
+
+        @Override
+        public void pointRemoved(Point point) {
+            flush();
+            Integer id = pointIds.remove(point);
+            if (id != null) {
+                append(REMOVE_POINT, id);
+            }
+        }
+
+        @Override
+        public void pointMoved(Point point) {
+            if (point != movedPoint) {
+                flush();
+                Integer id = pointIds.get(point);
+                if (id != null) {
+                    movedPoint = point;
+                    movedId = id;
+                }
+            }
+        }
+
+        @Override
+        public void lineAdded(Line line) {
+            flush();
+            Integer from = pointIds.get(line.getFrom());
+            Integer to = pointIds.get(line.getTo());
+            if (from != null && to != null) {
+                int id = nextId++;
+                lineIds.put(line, id);
+                append(ADD_LINE, id, from, to);
+            }
+        }
+
+        @Override
+        public void lineRemoved(Line line) {
+            flush();
+            Integer id = lineIds.remove(line);
+            if (id != null) {
+                append(REMOVE_LINE, id);
+            }
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent e) {
+            if (e.getPropertyName().equals(Map.PROP_IMAGE) && !isSnapshotImage(e.getNewValue())) {
+                compact();  // images are only in the snapshot
+            }
+        }
+
+        /** The image decoded in background after reading, already in the snapshot. */
+        private boolean isSnapshotImage(Object image) {
+            if (imageLoader == null || !imageLoader.isDone() || imageLoader.isCancelled())
+                return false;
+            try {
+                return imageLoader.get() == image;
+            } catch (Exception ex) {
+                return false;
+            }
+        }
+    }
+
+    /** Writes the snapshot and the start of its journal to the temporary files. */
+    private class Compaction extends SwingWorker<Long, Void> {
+
+        private final List<Point> points;
+        private final int[] pointIds;
+        private final List<Line> lines;
+        private final int[] lineIds;
+        private final BufferedImage image;
+        private final Future<BufferedImage> loader;
+        private final int nextId;
+
+        Compaction(List<Point> points, int[] pointIds, List<Line> lines, int[] lineIds,
+                BufferedImage image, Future<BufferedImage> loader, int nextId) {
+            this.points = points;
+            this.pointIds = pointIds;
+            this.lines = lines;
+            this.lineIds = lineIds;
+            this.image = image;
+            this.loader = loader;
+            this.nextId = nextId;
+        }
+
+        @Override
+        protected Long doInBackground() throws Exception {
+            BufferedImage snapshotImage = image;
+            if (snapshotImage == null && loader != null) {
+                try {
+                    snapshotImage = loader.get();  // still decoding the image of the read snapshot
+                } catch (ExecutionException ex) {
+                    ex.getCause().printStackTrace();
+                } catch (CancellationException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            new FileMapDAO(snapshotTemp).save(points, lines, snapshotImage);
+            long crc = checksum(snapshotTemp);
+            writeBase(journalTemp, crc, nextId, pointIds, lineIds);
+            return crc;
+        }
+
+        @Override
+        protected void done() {
+            finish(this);
+        }
+    }
+}
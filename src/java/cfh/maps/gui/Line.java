@@ -4,6 +4,9 @@ import static java.lang.Math.abs;
 
 public class Line {
 
+    /** Factor from pixel distance to length. */
+    public static final double SCALE = 1.11;
+    
     private final Point from;
     private final Point to;
     
@@ -24,7 +27,7 @@ public class Line {
     }
     
     public double getLength() {
-        return to.distanceTo(from.getX(), from.getY()) * 1.11;
+        return to.distanceTo(from.getX(), from.getY()) * SCALE;
     }
     
     public double distanceTo(int x, int y) {
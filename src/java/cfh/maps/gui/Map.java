@@ -5,8 +5,12 @@ import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Map {
 
@@ -19,7 +23,17 @@ public class Map {
     private final List<Point> points = new ArrayList<Point>();
     private final List<Line> lines = new ArrayList<Line>();
     
+    // by identity: position in points and attached lines of each point, position of each line
+    private final transient IdentityHashMap<Point, Attached> attached = new IdentityHashMap<Point, Attached>();
+    private final transient IdentityHashMap<Line, Integer> linePositions = new IdentityHashMap<Line, Integer>();
+    private transient int[] degrees = new int[4];  // number of points by number of attached lines
+    
+    // spatial index for findPoint/findLine, lines by the area where distanceTo can hit
+    private final transient QuadTree<Point> pointTree = new QuadTree<Point>();
+    private final transient QuadTree<Line> lineTree = new QuadTree<Line>();
+    
     private final transient PropertyChangeSupport support = new PropertyChangeSupport(this);
+    private final transient List<MapListener> listeners = new CopyOnWriteArrayList<MapListener>();
 
     Map() {
     }
@@ -51,31 +65,62 @@ public class Map {
     
     public void clearPoints() {
         int old = points.size();
+        List<Point> removed = new ArrayList<Point>(points);
         points.clear();
+        attached.clear();
+        degrees = new int[4];
+        pointTree.clear();
+        for (Point point : removed) {
+            firePointRemoved(point);
+        }
         support.firePropertyChange(PROP_POINTS, old, 0);
     }
     
+    /** @return <code>false</code> if the point (same instance) is already in the map */
     public boolean addPoint(Point point) {
         if (point == null) throw new IllegalArgumentException("null point");
+        if (attached.containsKey(point))
+            return false;
         
         int old = points.size();
-        if (points.add(point)) {
-            support.firePropertyChange(PROP_POINTS, old, points.size());
-            return true;
-        } else {
-            return false;
-        }
+        insertPoint(point);
+        firePointAdded(point);
+        support.firePropertyChange(PROP_POINTS, old, points.size());
+        return true;
     }
     
+    /** Removes the point only, the lines attached to it must be removed separately. */
     public boolean removePoint(Point point) {
         if (point == null) throw new IllegalArgumentException("null point");
+        Attached removed = attached.remove(point);
+        if (removed == null)
+            return false;
         
         int old = points.size();
-        if (points.remove(point)) {
-            support.firePropertyChange(PROP_POINTS, old, points.size());
-            return true;
-        } else {
-            return false;
+        Point last = points.remove(points.size()-1);
+        if (last != point) {
+            points.set(removed.position, last);
+            attached.get(last).position = removed.position;
+        }
+        degrees[removed.lines.size()] -= 1;
+        pointTree.remove(point);
+        firePointRemoved(point);
+        support.firePropertyChange(PROP_POINTS, old, points.size());
+        return true;
+    }
+    
+    /** Moves the point, keeping the index of the map up to date. */
+    public void movePoint(Point point, int x, int y) {
+        if (point == null) throw new IllegalArgumentException("null point");
+        
+        point.setX(x);
+        point.setY(y);
+        if (pointTree.contains(point)) {
+            pointTree.put(point, x, y, x, y);
+            for (Line line : getLines(point)) {
+                putLine(line);
+            }
+            firePointMoved(point);
         }
     }
     
@@ -83,42 +128,165 @@ public class Map {
         return Collections.unmodifiableList(lines);
     }
     
+    /** Lines attached to the point, empty if the point is not in the map. */
+    public List<Line> getLines(Point point) {
+        Attached a = attached.get(point);
+        if (a == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(a.lines);
+    }
+    
+    /** Number of points by number of attached lines (a loop counts twice), at least one entry. */
+    public int[] getDegreeHistogram() {
+        int max = degrees.length - 1;
+        while (max > 0 && degrees[max] == 0) {
+            max -= 1;
+        }
+        return Arrays.copyOf(degrees, max+1);
+    }
+    
     public void clearLines() {
         int old = lines.size();
+        List<Line> removed = new ArrayList<Line>(lines);
         lines.clear();
+        linePositions.clear();
+        for (Attached a : attached.values()) {
+            a.lines.clear();
+        }
+        degrees = new int[4];
+        degrees[0] = points.size();
+        lineTree.clear();
+        for (Line line : removed) {
+            fireLineRemoved(line);
+        }
         support.firePropertyChange(PROP_LINES, old, 0);
     }
     
+    /** @return <code>false</code> if the line (same instance) is already in the map */
     public boolean addLine(Line line) {
         if (line == null) throw new IllegalArgumentException("null line");
-        if (!points.contains(line.getFrom())) throw new IllegalArgumentException("invalid from point");
-        if (!points.contains(line.getTo())) throw new IllegalArgumentException("invalid to point");
+        if (!attached.containsKey(line.getFrom())) throw new IllegalArgumentException("invalid from point");
+        if (!attached.containsKey(line.getTo())) throw new IllegalArgumentException("invalid to point");
+        if (linePositions.containsKey(line))
+            return false;
         
         int old = lines.size();
-        if (lines.add(line)) {
-            support.firePropertyChange(PROP_LINES, old, lines.size());
-            return true;
-        } else {
-            return false;
+        insertLine(line);
+        fireLineAdded(line);
+        support.firePropertyChange(PROP_LINES, old, lines.size());
+        return true;
+    }
+    
+    /**
+     * Adds all points and lines, firing one event for the points and one for the lines.
+     * The lines may use points of the map or of <code>newPoints</code>; they are checked
+     * before anything is added. Points and lines already in the map are ignored.
+     * @return <code>true</code> if anything was added
+     */
+    public boolean addAll(Collection<Point> newPoints, Collection<Line> newLines) {
+        if (newPoints == null) throw new IllegalArgumentException("null points");
+        if (newLines == null) throw new IllegalArgumentException("null lines");
+        
+        IdentityHashMap<Point, Boolean> known = new IdentityHashMap<Point, Boolean>(newPoints.size());
+        for (Point point : newPoints) {
+            if (point == null) throw new IllegalArgumentException("null point");
+            known.put(point, Boolean.TRUE);
+        }
+        int i = 0;
+        for (Line line : newLines) {
+            if (line == null) throw new IllegalArgumentException("null line " + i);
+            if (!attached.containsKey(line.getFrom()) && !known.containsKey(line.getFrom())) 
+                throw new IllegalArgumentException("invalid from point for line " + i);
+            if (!attached.containsKey(line.getTo()) && !known.containsKey(line.getTo())) 
+                throw new IllegalArgumentException("invalid to point for line " + i);
+            i += 1;
         }
+        
+        int oldPoints = points.size();
+        for (Point point : newPoints) {
+            if (!attached.containsKey(point)) {
+                insertPoint(point);
+                firePointAdded(point);
+            }
+        }
+        int oldLines = lines.size();
+        for (Line line : newLines) {
+            if (!linePositions.containsKey(line)) {
+                insertLine(line);
+                fireLineAdded(line);
+            }
+        }
+        support.firePropertyChange(PROP_POINTS, oldPoints, points.size());
+        support.firePropertyChange(PROP_LINES, oldLines, lines.size());
+        return points.size() != oldPoints || lines.size() != oldLines;
     }
     
     public boolean removeLine(Line line) {
         if (line == null) throw new IllegalArgumentException("null line");
+        Integer position = linePositions.remove(line);
+        if (position == null)
+            return false;
         
         int old = lines.size();
-        if (lines.remove(line)) {
-            support.firePropertyChange(PROP_LINES, old, lines.size());
-            return true;
-        } else {
-            return false;
+        Line last = lines.remove(lines.size()-1);
+        if (last != line) {
+            lines.set(position, last);
+            linePositions.put(last, position);
+        }
+        detach(line.getFrom(), line);
+        detach(line.getTo(), line);
+        lineTree.remove(line);
+        fireLineRemoved(line);
+        support.firePropertyChange(PROP_LINES, old, lines.size());
+        return true;
+    }
+    
+    private void insertPoint(Point point) {
+        attached.put(point, new Attached(points.size()));
+        points.add(point);
+        degrees[0] += 1;
+        pointTree.put(point, point.getX(), point.getY(), point.getX(), point.getY());
+    }
+    
+    private void insertLine(Line line) {
+        linePositions.put(line, lines.size());
+        lines.add(line);
+        attach(line.getFrom(), line);
+        attach(line.getTo(), line);
+        putLine(line);
+    }
+    
+    private void attach(Point point, Line line) {
+        Attached a = attached.get(point);
+        int degree = a.lines.size();
+        a.lines.add(line);
+        if (degree+1 == degrees.length) {
+            degrees = Arrays.copyOf(degrees, 2*degrees.length);
+        }
+        degrees[degree] -= 1;
+        degrees[degree+1] += 1;
+    }
+    
+    private void detach(Point point, Line line) {
+        Attached a = attached.get(point);
+        if (a == null)  // point already removed
+            return;
+        for (int i = a.lines.size()-1; i >= 0; i--) {
+            if (a.lines.get(i) == line) {
+                int degree = a.lines.size();
+                a.lines.remove(i);
+                degrees[degree] -= 1;
+                degrees[degree-1] += 1;
+                return;
+            }
         }
     }
     
     public Point findPoint(int x, int y, int minDistance) {
         Point found = null;
         double dist = minDistance;
-        for (Point point : points) {
+        List<Point> near = pointTree.query(x-minDistance, y-minDistance, x+minDistance, y+minDistance, new ArrayList<Point>());
+        for (Point point : near) {
             double d = point.distanceTo(x, y);
             if (d <= dist) {
                 found = point;
@@ -131,7 +299,9 @@ public class Map {
     public Line findLine(int x, int y, int minDistance) {
         Line found = null;
         double dist = minDistance;
-        for (Line line : lines) {
+        int reach = (int) Math.ceil(minDistance * Line.SCALE);  // distanceTo divides by the scaled length
+        List<Line> near = lineTree.query(x-reach, y-reach, x+reach, y+reach, new ArrayList<Line>());
+        for (Line line : near) {
             double d = line.distanceTo(x, y);
             if (d <= dist) {
                 found = line;
@@ -141,6 +311,19 @@ public class Map {
         return found;
     }
     
+    /** 
+     * Indexes the line by the box of the area where {@link Line#distanceTo(int, int)} is defined: 
+     * its u <= 1 test with the scaled length accepts the line prolonged by SCALE^2.
+     */
+    private void putLine(Line line) {
+        double factor = Line.SCALE * Line.SCALE;
+        int x1 = line.getFrom().getX();
+        int y1 = line.getFrom().getY();
+        int x2 = x1 + (int) Math.ceil(Math.abs(line.getTo().getX()-x1) * factor) * Integer.signum(line.getTo().getX()-x1);
+        int y2 = y1 + (int) Math.ceil(Math.abs(line.getTo().getY()-y1) * factor) * Integer.signum(line.getTo().getY()-y1);
+        lineTree.put(line, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+    
     public void addPropertyChangeListener(PropertyChangeListener listener) {
         support.addPropertyChangeListener(listener);
     }
@@ -148,4 +331,52 @@ public class Map {
     public void removePropertyChangeListener(PropertyChangeListener listener) {
         support.removePropertyChangeListener(listener);
     }
+    
+    public void addMapListener(MapListener listener) {
+        if (listener == null) throw new IllegalArgumentException("null listener");
+        listeners.add(listener);
+    }
+    
+    public void removeMapListener(MapListener listener) {
+        listeners.remove(listener);
+    }
+    
+    private void firePointAdded(Point point) {
+        for (MapListener listener : listeners) {
+            listener.pointAdded(point);
+        }
+    }
+    
+    private void firePointRemoved(Point point) {
+        for (MapListener listener : listeners) {
+            listener.pointRemoved(point);
+        }
+    }
+    
+    private void firePointMoved(Point point) {
+        for (MapListener listener : listeners) {
+            listener.pointMoved(point);
+        }
+    }
+    
+    private void fireLineAdded(Line line) {
+        for (MapListener listener : listeners) {
+            listener.lineAdded(line);
+        }
+    }
+    
+    private void fireLineRemoved(Line line) {
+        for (MapListener listener : listeners) {
+            listener.lineRemoved(line);
+        }
+    }
+    
+    private static class Attached {
+        private int position;
+        private final List<Line> lines = new ArrayList<Line>(4);
+        
+        Attached(int position) {
+            this.position = position;
+        }
+    }
 }
@@ -8,11 +8,18 @@ import java.awt.Font;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
 
 import javax.imageio.ImageIO;
@@ -26,6 +33,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JToggleButton;
+import javax.swing.SwingWorker;
 import javax.swing.border.EmptyBorder;
 
 import cfh.maps.graph.Graph;
@@ -37,8 +45,13 @@ class MapFrame extends JFrame {
     private final Preferences prefs = Preferences.userNodeForPackage(getClass());
     
     private Map map;
+    private Future<BufferedImage> imageLoader = null;  // of the loaded map
+    private File file = null;  // of the loaded or saved map
+    private JournalMapDAO journal = null;
+    private JournalMapDAO closing = null;  // last closed journal, possibly still compacting
     private final MapPanel mapPanel;
     private ButtonGroup modeGroup;
+    private JToggleButton journaling;
     
     MapFrame() {
         super("MAP");
@@ -89,6 +102,15 @@ class MapFrame extends JFrame {
             }
         });
         
+        journaling = newJToggleButton("Journal");
+        journaling.setToolTipText("Keep saving all changes to a journal next to the map file, starting with the next Save");
+        journaling.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                doJournal(journaling.isSelected());
+            }
+        });
+        
         final JToggleButton points = newJToggleButton("Points");
         points.setToolTipText("<html>Edit points of current map"
             + "<dl>"
@@ -153,6 +175,7 @@ class MapFrame extends JFrame {
         buttons.add(join);
         buttons.add(Box.createHorizontalStrut(10));
         buttons.add(save);
+        buttons.add(journaling);
         buttons.add(Box.createHorizontalStrut(40));
         buttons.add(points);
         buttons.add(lines);
@@ -164,6 +187,14 @@ class MapFrame extends JFrame {
         
         map = new Map();
         mapPanel = new MapPanel(map);
+        mapPanel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (journal != null) {
+                    journal.flush();  // end of dragging
+                }
+            }
+        });
 
         JPanel panel = new JPanel();
         panel.add(mapPanel);    // center image
@@ -191,7 +222,10 @@ class MapFrame extends JFrame {
     
     private void doClear() {
         modeGroup.clearSelection();
+        closeJournal();
         map = new Map();
+        imageLoader = null;
+        file = null;
         mapPanel.setMap(map);
         repaint();
     }
@@ -225,10 +259,26 @@ class MapFrame extends JFrame {
         dir = chooser.getCurrentDirectory().getAbsolutePath();
         prefs.put(PREF_DIR, dir);
         
-        File file = chooser.getSelectedFile();
-        FileMapDAO dao = new FileMapDAO(file);
+        final File file = chooser.getSelectedFile();
+        closeJournal(new Runnable() {
+            @Override
+            public void run() {
+                load(file);
+            }
+        });
+    }
+    
+    private void load(File file) {
+        JournalMapDAO dao = new JournalMapDAO(file, FileMapDAO.ImageMode.BACKGROUND);
         try {
             map = dao.read();
+            imageLoader = dao.getImageLoader();
+            this.file = file;
+            if (journaling.isSelected()) {
+                journal = dao;
+            } else {
+                dao.close();  // only replayed
+            }
             mapPanel.setMap(map);
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -245,15 +295,10 @@ class MapFrame extends JFrame {
         prefs.put(PREF_DIR, dir);
         
         File file = chooser.getSelectedFile();
-        FileMapDAO dao = new FileMapDAO(file);
+        FileMapDAO dao = new FileMapDAO(file, FileMapDAO.ImageMode.SKIP);
         try {
             Map tmp = dao.read();
-            for (Point point : tmp.getPoints()) {
-                map.addPoint(point);
-            }
-            for (Line line : tmp.getLines()) {
-                map.addLine(line);
-            }
+            map.addAll(tmp.getPoints(), tmp.getLines());
 //            mapPanel.repaint();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -269,16 +314,74 @@ class MapFrame extends JFrame {
         dir = chooser.getCurrentDirectory().getAbsolutePath();
         prefs.put(PREF_DIR, dir);
         
-        File file = chooser.getSelectedFile();
-        FileMapDAO dao = new FileMapDAO(file);
+        final File file = chooser.getSelectedFile();
+        closeJournal(new Runnable() {
+            @Override
+            public void run() {
+                if (journaling.isSelected()) {
+                    startJournal(file);
+                } else {
+                    new Save(file).execute();
+                }
+            }
+        });
+    }
+    
+    private void doJournal(final boolean selected) {
+        closeJournal(new Runnable() {
+            @Override
+            public void run() {
+                if (selected && file != null) {
+                    startJournal(file);
+                }
+            }
+        });
+    }
+    
+    /** Saves the map to the file in background and journals its changes from now on. */
+    private void startJournal(File file) {
+        JournalMapDAO dao = new JournalMapDAO(file);
+        dao.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent e) {
+                if (e.getPropertyName().equals(JournalMapDAO.PROP_FAILURE)) {
+                    JOptionPane.showMessageDialog(MapFrame.this, e.getNewValue());
+                }
+            }
+        });
         try {
-            dao.save(map);
-        } catch (IOException ex) {
+            dao.save(map, imageLoader);  // waits for the image in background
+            journal = dao;
+            this.file = file;
+        } catch (Exception ex) {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, ex);
         }
     }
     
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this, ex);
+            }
+            closing = journal;
+            journal = null;
+        }
+    }
+    
+    /** Closes the journal and runs the action once its files are not written anymore. */
+    private void closeJournal(Runnable action) {
+        closeJournal();
+        if (closing != null) {
+            closing.whenClosed(action);
+        } else {
+            action.run();
+        }
+    }
+    
     private void doPoints(boolean selected) {
         if (selected) {
             mapPanel.setMode(POINTS);
@@ -296,34 +399,12 @@ class MapFrame extends JFrame {
         text.setEditable(false);
         text.setFont(new Font("monospaced", Font.PLAIN, 12));
         
-        class Counter {
-            int count = 0;
-            int increment() {
-                count += 1;
-                return count;
-            }
-        }
-        java.util.Map<Point, Counter> counters = new HashMap<Point, Counter>();
         List<Point> points = map.getPoints();
         List<Line> lines = map.getLines();
-        for (Point point : points) {
-            counters.put(point, new Counter());
-        }
-        int max = 0;
-        for (Line line : lines) {
-            int c;
-            c = counters.get(line.getFrom()).increment();
-            if (c > max) max = c;
-            c = counters.get(line.getTo()).increment();
-            if (c > max) max = c;
-        }
-        int[] hist = new int[max+1];
-        for (Counter counter : counters.values()) {
-            hist[counter.count] += 1;
-        }
+        int[] hist = map.getDegreeHistogram();
         
         text.append(String.format("number of points: %d%n", points.size()));
-        for (int i = 0; i <= max; i++) {
+        for (int i = 0; i < hist.length; i++) {
             text.append(String.format("  [%d]: %d%n", i, hist[i]));
         }
         text.append("\n");
@@ -348,6 +429,59 @@ class MapFrame extends JFrame {
         dialog.setVisible(true);
     }
     
+    /** Saves a copy of the map in background, waiting there for the image if still decoding. */
+    private class Save extends SwingWorker<Void, Void> {
+        
+        private final File target;
+        private final List<Point> points;
+        private final List<Line> lines;
+        private final BufferedImage image;
+        private final Future<BufferedImage> loader;
+        
+        Save(File target) {
+            this.target = target;
+            List<Point> mapPoints = map.getPoints();
+            List<Line> mapLines = map.getLines();
+            IdentityHashMap<Point, Point> copies = new IdentityHashMap<Point, Point>(mapPoints.size());
+            points = new ArrayList<Point>(mapPoints.size());
+            for (Point point : mapPoints) {
+                Point copy = new Point(point.getX(), point.getY());
+                copies.put(point, copy);
+                points.add(copy);
+            }
+            lines = new ArrayList<Line>(mapLines.size());
+            for (Line line : mapLines) {
+                lines.add(new Line(copies.get(line.getFrom()), copies.get(line.getTo())));
+            }
+            image = map.getImage();
+            loader = (image == null) ? imageLoader : null;
+        }
+        
+        @Override
+        protected Void doInBackground() throws Exception {
+            BufferedImage saved = image;
+            if (saved == null && loader != null) {
+                saved = loader.get();  // still decoding, do not save without image
+            }
+            new FileMapDAO(target).save(points, lines, saved);
+            return null;
+        }
+        
+        @Override
+        protected void done() {
+            try {
+                get();
+                file = target;
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(MapFrame.this, ex);
+            } catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+                JOptionPane.showMessageDialog(MapFrame.this, ex.getCause());
+            }
+        }
+    }
+    
     public static void main(String[] args) {
         MapFrame frame = new MapFrame();
         frame.setVisible(true);
@@ -0,0 +1,21 @@
+package cfh.maps.gui;
+
+import java.util.EventListener;
+
+/**
+ * Changes of single points and lines of a {@link Map}, called after each change in the
+ * order they are made; bulk changes call it for each element. The image is reported by
+ * {@link Map#PROP_IMAGE}.
+ */
+public interface MapListener extends EventListener {
+
+    void pointAdded(Point point);
+    
+    void pointRemoved(Point point);
+    
+    void pointMoved(Point point);
+    
+    void lineAdded(Line line);
+    
+    void lineRemoved(Line line);
+}
@@ -9,14 +9,18 @@ import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JPanel;
 
@@ -25,18 +29,32 @@ class MapPanel extends JPanel {
     private static final int POINTDIST = 10;
     private static final int LINEDIST = 5;
     
+    private static final Stroke LINE_STROKE = new BasicStroke(2);
+    /** Bigger panels are painted directly, without layer. */
+    private static final long LAYER_LIMIT = 16L * 1024 * 1024;
+    /** Reach of the labels and circles beyond the points and lines. */
+    private static final int MARGIN = 40;
+    
     enum Mode {
         NONE, POINTS, LINES;
     }
 
     private Map map;
+    private TileCache background = null;  // of the map image
     
     private Mode mode = Mode.NONE;
     
     private Point pressedPoint = null;
     private Point lastLine = null;
+    
+    // static geometry, without the point being dragged and its lines
+    private BufferedImage layer = null;
+    private boolean layerValid = false;
+    private Color layerBackground = null;
+    private Point dragged = null;
 
     private final PropertyChangeListener mapListener;
+    private final MapListener moveListener;
     
     MapPanel(Map map) {
         mapListener = new PropertyChangeListener() {
@@ -45,6 +63,27 @@ class MapPanel extends JPanel {
                 mapChanged(e);
             }
         };
+        moveListener = new MapListener() {
+            @Override
+            public void pointAdded(Point point) {
+            }
+            @Override
+            public void pointRemoved(Point point) {
+            }
+            @Override
+            public void pointMoved(Point point) {
+                if (point != dragged) {
+                    layerValid = false;
+                    repaint();
+                }
+            }
+            @Override
+            public void lineAdded(Line line) {
+            }
+            @Override
+            public void lineRemoved(Line line) {
+            }
+        };
         setMap(map);
         
         addMouseListener(new MouseAdapter() {
@@ -57,6 +96,10 @@ class MapPanel extends JPanel {
                 }
             }
             @Override
+            public void mouseReleased(MouseEvent e) {
+                doReleased();
+            }
+            @Override
             public void mouseClicked(MouseEvent e) {
                 if (e.getButton() == MouseEvent.BUTTON1) {
                     doLeftClicked(e);
@@ -77,9 +120,14 @@ class MapPanel extends JPanel {
         if (map == null) throw new IllegalArgumentException("null map");
         if (this.map != null) {
             this.map.removePropertyChangeListener(mapListener);
+            this.map.removeMapListener(moveListener);
         }
         this.map = map;
         this.map.addPropertyChangeListener(mapListener);
+        this.map.addMapListener(moveListener);
+        pressedPoint = null;
+        dragged = null;
+        layerValid = false;
         revalidate();
         repaint();
     }
@@ -88,6 +136,7 @@ class MapPanel extends JPanel {
         if (e.getPropertyName().equals(Map.PROP_IMAGE)) {
             revalidate();
         }
+        layerValid = false;
         repaint();
     }
 
@@ -120,10 +169,8 @@ class MapPanel extends JPanel {
             case POINTS:
                 Point point = map.findPoint(e.getPoint().x, e.getPoint().y, POINTDIST);
                 if (point != null) {
-                    for (Line line : new ArrayList<Line>(map.getLines())) {
-                        if (line.getFrom() == point || line.getTo() == point) {
-                            map.removeLine(line);
-                        }
+                    for (Line line : new ArrayList<Line>(map.getLines(point))) {
+                        map.removeLine(line);
                     }
                     map.removePoint(point);
                 }
@@ -145,6 +192,15 @@ class MapPanel extends JPanel {
         pressedPoint = map.findPoint(e.getPoint().x, e.getPoint().y, POINTDIST);
     }
 
+    private void doReleased() {
+        if (dragged != null) {
+            Rectangle bounds = getDraggedBounds();
+            dragged = null;
+            layerValid = false;
+            repaint(bounds);
+        }
+    }
+
     private void doMouseDragged(MouseEvent e) {
         if (pressedPoint == null)
             return;
@@ -152,9 +208,16 @@ class MapPanel extends JPanel {
         switch (mode) {
             case POINTS:
             case LINES:
-                pressedPoint.setX(e.getPoint().x);
-                pressedPoint.setY(e.getPoint().y);
-                break;
+                if (dragged != pressedPoint) {
+                    // take it out of the layer, only its area is repainted while dragging
+                    dragged = pressedPoint;
+                    layerValid = false;
+                    repaint();
+                }
+                Rectangle before = getDraggedBounds();
+                map.movePoint(pressedPoint, e.getPoint().x, e.getPoint().y);
+                repaint(before.union(getDraggedBounds()));
+                return;
 //                int dx = e.getPoint().x - pressedPoint.getX();
 //                int dy = e.getPoint().y - pressedPoint.getY();
 //                List<Line> lines = map.getLines();
@@ -174,7 +237,22 @@ class MapPanel extends JPanel {
             default:
                 break;
         }
-        repaint();
+    }
+    
+    /** Area of the dragged point and its lines, including labels. */
+    private Rectangle getDraggedBounds() {
+        int x0 = dragged.getX();
+        int y0 = dragged.getY();
+        int x1 = x0;
+        int y1 = y0;
+        for (Line line : map.getLines(dragged)) {
+            Point other = (line.getFrom() == dragged) ? line.getTo() : line.getFrom();
+            x0 = Math.min(x0, other.getX());
+            y0 = Math.min(y0, other.getY());
+            x1 = Math.max(x1, other.getX());
+            y1 = Math.max(y1, other.getY());
+        }
+        return new Rectangle(x0-MARGIN, y0-MARGIN, x1-x0+2*MARGIN, y1-y0+2*MARGIN);
     }
     
     public void setMode(Mode mode) {
@@ -212,31 +290,101 @@ class MapPanel extends JPanel {
         super.paintComponent(g);
         Graphics2D gg = (Graphics2D) g.create();
         try {
-            gg.drawImage(map.getImage(), 0, 0, this);
+            int width = getWidth();
+            int height = getHeight();
+            if (width > 0 && height > 0 && (long) width * height <= LAYER_LIMIT) {
+                if (!layerValid || layer == null || layer.getWidth() != width || layer.getHeight() != height
+                        || !getBackground().equals(layerBackground)) {
+                    paintLayer(width, height);
+                }
+                gg.drawImage(layer, 0, 0, null);
+            } else {
+                layer = null;
+                paintStatic(gg);
+            }
+            paintDynamic(gg);
+        } finally {
+            gg.dispose();
+        }
+    }
+    
+    private void paintLayer(int width, int height) {
+        if (layer == null || layer.getWidth() != width || layer.getHeight() != height) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            if (gc != null) {
+                layer = gc.createCompatibleImage(width, height);
+            } else {
+                layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+        }
+        Graphics2D lg = layer.createGraphics();
+        try {
+            layerBackground = getBackground();
+            lg.setColor(layerBackground);
+            lg.fillRect(0, 0, width, height);
+            paintStatic(lg);
+        } finally {
+            lg.dispose();
+        }
+        layerValid = true;
+    }
+
+    /** Image, lines and points, except the dragged point and its lines. */
+    private void paintStatic(Graphics2D gg) {
+        BufferedImage image = map.getImage();
+        if (image != null) {
+            if (background == null || background.getImage() != image) {
+                background = new TileCache(image, 1F);
+            }
+            background.paint(gg, this);
+        }
 
+        gg.setColor(Color.BLUE);
+        Stroke tmp = gg.getStroke();
+        gg.setStroke(LINE_STROKE);
+        for (Line line : map.getLines()) {
+            if (dragged == null || (line.getFrom() != dragged && line.getTo() != dragged)) {
+                drawLine(gg, line);
+            }
+        }
+        gg.setStroke(tmp);
+
+        gg.setColor(Color.RED);
+        for (Point point : map.getPoints()) {
+            if (point != dragged) {
+                drawPoint(gg, point);
+            }
+        }
+    }
+    
+    /** The dragged point with its lines and neighbors, and the start of a new line. */
+    private void paintDynamic(Graphics2D gg) {
+        if (dragged != null) {
+            List<Line> lines = map.getLines(dragged);
             gg.setColor(Color.BLUE);
             Stroke tmp = gg.getStroke();
-            gg.setStroke(new BasicStroke(2));
-            for (Line line : map.getLines()) {
-                drawLine(gg, line);
+            gg.setStroke(LINE_STROKE);
+            for (int i = 0; i < lines.size(); i++) {
+                drawLine(gg, lines.get(i));
             }
             gg.setStroke(tmp);
-
+            
             gg.setColor(Color.RED);
-            for (Point point : map.getPoints()) {
-                drawPoint(gg, point);
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                drawPoint(gg, (line.getFrom() == dragged) ? line.getTo() : line.getFrom());
             }
-        } finally {
-            gg.dispose();
+            drawPoint(gg, dragged);
+        }
+        if (lastLine != null) {
+            gg.setColor(Color.RED);
+            gg.drawOval(lastLine.getX()-8, lastLine.getY()-8, 16, 16);
         }
     }
 
     private void drawPoint(Graphics2D gg, Point point) {
         gg.drawOval(point.getX()-2, point.getY()-2, 4, 4);
         gg.drawOval(point.getX()-5, point.getY()-5, 10, 10);
-        if (point == lastLine) {
-            gg.drawOval(point.getX()-8, point.getY()-8, 16, 16);
-        }
     }
     
     private void drawLine(Graphics2D gg, Line line) {
@@ -0,0 +1,194 @@
+package cfh.maps.gui;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Region quadtree of items with bounding boxes (inclusive integer coordinates).
+ * <p>
+ * An item is kept in the smallest cell whose square contains its whole box, so
+ * a point always goes down to a leaf and a long line stays higher up. The cell of
+ * each item is found by identity, items with equal values are different entries.
+ * The root grows as needed, coordinates are not limited to the image.
+ */
+class QuadTree<T> {
+
+    private static final int CAPACITY = 8;
+    private static final int MIN_SIZE = 16;
+    private static final int INITIAL_SIZE = 1024;
+
+    private Cell<T> root = null;
+    private final IdentityHashMap<T, Entry<T>> entries = new IdentityHashMap<T, Entry<T>>();
+
+    int size() {
+        return entries.size();
+    }
+
+    boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    void clear() {
+        root = null;
+        entries.clear();
+    }
+
+    /** Adds the item or moves it to the new box if already contained. */
+    void put(T item, int x0, int y0, int x1, int y1) {
+        if (item == null) throw new IllegalArgumentException("null item");
+        if (x1 < x0 || y1 < y0)
+            throw new IllegalArgumentException("invalid box: " + x0 + "," + y0 + " " + x1 + "," + y1);
+
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<T>(item);
+            entries.put(item, entry);
+        } else {
+            entry.cell.unlink(entry);
+        }
+        entry.x0 = x0;
+        entry.y0 = y0;
+        entry.x1 = x1;
+        entry.y1 = y1;
+
+        if (root == null) {
+            root = new Cell<T>(Math.min(x0, 0), Math.min(y0, 0), INITIAL_SIZE);
+        }
+        while (!root.encloses(entry)) {
+            grow(entry);
+        }
+        root.insert(entry);
+    }
+
+    boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null)
+            return false;
+        entry.cell.unlink(entry);
+        return true;
+    }
+
+    /** Adds all items whose box intersects the given box to <code>result</code>. */
+    List<T> query(int x0, int y0, int x1, int y1, List<T> result) {
+        if (root != null) {
+            root.query(x0, y0, x1, y1, result);
+        }
+        return result;
+    }
+
+    /** Doubles the root towards the box. */
+    private void grow(Entry<T> entry) {
+        int size = root.size;
+        int x = (entry.x0 < root.x) ? root.x - size : root.x;
+        int y = (entry.y0 < root.y) ? root.y - size : root.y;
+        Cell<T> parent = new Cell<T>(x, y, 2*size);
+        parent.split();
+        parent.children[parent.childIndex(root.x, root.y)] = root;
+        root = parent;
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private int x0, y0, x1, y1;
+        private Cell<T> cell;
+        private int position;  // in cell.items
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    private static class Cell<T> {
+        private final int x;
+        private final int y;
+        private final int size;
+        private final List<Entry<T>> items = new ArrayList<Entry<T>>(4);
+        private Cell<T>[] children = null;
+
+        Cell(int x, int y, int size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        boolean encloses(Entry<T> entry) {
+            return x <= entry.x0 && entry.x1 < x + size && y <= entry.y0 && entry.y1 < y + size;
+        }
+
+        int childIndex(int px, int py) {
+            int half = size / 2;
+            return ((px < x + half) ? 0 : 1) + ((py < y + half) ? 0 : 2);
+        }
+
+        void insert(Entry<T> entry) {
+            Cell<T> cell = this;
+            while (true) {
+                if (cell.children != null) {
+                    Cell<T> child = cell.children[cell.childIndex(entry.x0, entry.y0)];
+                    if (child.encloses(entry)) {
+                        cell = child;
+                        continue;
+                    }
+                }
+                cell.link(entry);
+                if (cell.children == null && cell.items.size() > CAPACITY && cell.size > MIN_SIZE) {
+                    cell.split();
+                }
+                return;
+            }
+        }
+
+        void split() {
+            int half = size / 2;
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Cell<T>[] split = new Cell[] {
+                new Cell<T>(x, y, half), new Cell<T>(x + half, y, half),
+                new Cell<T>(x, y + half, half), new Cell<T>(x + half, y + half, half)
+            };
+            children = split;
+            List<Entry<T>> old = new ArrayList<Entry<T>>(items);
+            items.clear();
+            for (Entry<T> entry : old) {
+                Cell<T> child = children[childIndex(entry.x0, entry.y0)];
+                if (child.encloses(entry)) {
+                    child.insert(entry);
+                } else {
+                    link(entry);
+                }
+            }
+        }
+
+        void link(Entry<T> entry) {
+            entry.cell = this;
+            entry.position = items.size();
+            items.add(entry);
+        }
+
+        /** Swap-remove, keeping the positions of the other entries valid. */
+        void unlink(Entry<T> entry) {
+            Entry<T> last = items.remove(items.size()-1);
+            if (last != entry) {
+                items.set(entry.position, last);
+                last.position = entry.position;
+            }
+            entry.cell = null;
+        }
+
+        void query(int qx0, int qy0, int qx1, int qy1, List<T> result) {
+            if (qx1 < x || qx0 >= x + size || qy1 < y || qy0 >= y + size)
+                return;
+            for (int i = 0; i < items.size(); i++) {
+                Entry<T> e = items.get(i);
+                if (e.x0 <= qx1 && qx0 <= e.x1 && e.y0 <= qy1 && qy0 <= e.y1) {
+                    result.add(e.item);
+                }
+            }
+            if (children != null) {
+                for (Cell<T> child : children) {
+                    child.query(qx0, qy0, qx1, qy1, result);
+                }
+            }
+        }
+    }
+}
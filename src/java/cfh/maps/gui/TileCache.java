@@ -0,0 +1,110 @@
+package cfh.maps.gui;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Background image cut in tiles compatible with the screen, already blended with the
+ * background color of the component; only the tiles within the clip are drawn.
+ * Tiles are made when first needed and again if the background color or the
+ * graphics configuration of the component changes.
+ */
+public class TileCache {
+
+    private static final int TILE_SIZE = 256;
+
+    private final Image image;
+    private final float alpha;
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+
+    private BufferedImage[] tiles;
+    private Color background = null;
+    private GraphicsConfiguration configuration = null;
+
+    /** @param alpha opacity of the image over the background */
+    public TileCache(BufferedImage image, float alpha) {
+        if (image == null) throw new IllegalArgumentException("null image");
+        if (alpha < 0 || alpha > 1) throw new IllegalArgumentException("invalid alpha: " + alpha);
+
+        this.image = image;
+        this.alpha = alpha;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new BufferedImage[columns * rows];
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Draws the tiles within the clip of <code>gg</code>, at the origin. */
+    public void paint(Graphics2D gg, Component component) {
+        Color color = component.getBackground();
+        GraphicsConfiguration gc = component.getGraphicsConfiguration();
+        if (!color.equals(background) || gc != configuration) {
+            tiles = new BufferedImage[columns * rows];
+            background = color;
+            configuration = gc;
+        }
+
+        Rectangle clip = gg.getClipBounds();
+        int c0 = 0, r0 = 0, c1 = columns-1, r1 = rows-1;
+        if (clip != null) {
+            c0 = Math.max(c0, clip.x / TILE_SIZE);
+            r0 = Math.max(r0, clip.y / TILE_SIZE);
+            c1 = Math.min(c1, (clip.x + clip.width - 1) / TILE_SIZE);
+            r1 = Math.min(r1, (clip.y + clip.height - 1) / TILE_SIZE);
+        }
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                BufferedImage tile = tiles[r*columns + c];
+                if (tile == null) {
+                    tile = createTile(c * TILE_SIZE, r * TILE_SIZE);
+                    tiles[r*columns + c] = tile;
+                }
+                gg.drawImage(tile, c * TILE_SIZE, r * TILE_SIZE, null);
+            }
+        }
+    }
+
+    private BufferedImage createTile(int x, int y) {
+        int w = Math.min(TILE_SIZE, width - x);
+        int h = Math.min(TILE_SIZE, height - y);
+        BufferedImage tile;
+        if (configuration != null) {
+            tile = configuration.createCompatibleImage(w, h, Transparency.OPAQUE);
+        } else {
+            tile = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D tg = tile.createGraphics();
+        try {
+            tg.setColor(background);
+            tg.fillRect(0, 0, w, h);
+            tg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+            tg.drawImage(image, -x, -y, null);
+        } finally {
+            tg.dispose();
+        }
+        return tile;
+    }
+}